@@ -0,0 +1,336 @@
+package kml;
+
+import kml.auth.Authentication;
+import kml.exceptions.AuthenticationException;
+import kml.exceptions.DownloaderException;
+import kml.exceptions.GameLauncherException;
+import kml.game.GameLauncher;
+import kml.game.GameListener;
+import kml.game.ProcessStats;
+import kml.game.download.*;
+import kml.game.profile.Profile;
+import kml.game.version.Version;
+import kml.game.version.VersionMeta;
+import kml.game.version.Versions;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public final class HeadlessLauncher {
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILED = 1;
+    private static final int EXIT_USAGE = 2;
+    private static final long GC_SLICE = 50;
+    private static final long GC_PAUSE = 10;
+    private final Kernel kernel;
+    private final PrintStream out;
+
+    private HeadlessLauncher(Kernel kernel, PrintStream out) {
+        this.kernel = kernel;
+        this.out = out;
+    }
+
+    /**
+     * Runs a launcher command without the graphical interface. Progress is written to the standard output as
+     * one JSON object per line while the launcher log goes to the standard error.
+     * @param args The command and its options
+     */
+    public static void main(String[] args) {
+        String command = null, profile = null, file = null;
+        boolean dryRun = false;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--headless".equals(arg)) {
+                continue;
+            }
+            if ("--dry-run".equals(arg)) {
+                dryRun = true;
+            } else if ("--profile".equals(arg) && i + 1 < args.length) {
+                profile = args[++i];
+            } else if (command == null) {
+                command = arg;
+            } else if (file == null) {
+                file = arg;
+            } else {
+                usage();
+                System.exit(EXIT_USAGE);
+            }
+        }
+        if (command == null || (("export".equals(command) || "import".equals(command)) && file == null)) {
+            usage();
+            System.exit(EXIT_USAGE);
+        }
+        //Keep the standard output for machine readable events only
+        PrintStream out = System.out;
+        System.setOut(System.err);
+        Kernel kernel = new Kernel();
+        HeadlessLauncher launcher = new HeadlessLauncher(kernel, out);
+        int code;
+        try {
+            code = launcher.run(command, profile, file, dryRun);
+        } catch (RuntimeException ex) {
+            ex.printStackTrace(kernel.getConsole().getWriter());
+            launcher.error(ex.toString());
+            code = EXIT_FAILED;
+        }
+        kernel.getLanCacheServer().stop();
+        kernel.getDownloader().shutdown();
+        kernel.getConsole().close();
+        out.flush();
+        System.exit(code);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java -cp KML.jar kml.HeadlessLauncher <command> [--profile <id>]");
+        System.err.println("Commands:");
+        System.err.println("  plan            Lists the files the profile needs without downloading them");
+        System.err.println("  download        Downloads every file the profile needs");
+        System.err.println("  launch          Downloads the profile and runs the game until it exits");
+        System.err.println("  export <file>   Writes the version of the profile to an offline bundle");
+        System.err.println("  import <file>   Installs an offline bundle");
+        System.err.println("  gc [--dry-run]  Deletes files no installed version references or only reports them");
+    }
+
+    /**
+     * Runs a command
+     * @param command The command name
+     * @param profileID The id of the profile to use or null to use the selected one
+     * @param file The file argument of the command
+     * @param dryRun If the command should only report what it would change
+     * @return The exit code
+     */
+    private int run(String command, String profileID, String file, boolean dryRun) {
+        if (profileID != null) {
+            Profile p = kernel.getProfiles().getProfile(profileID);
+            if (p == null) {
+                error("Profile " + profileID + " does not exist.");
+                return EXIT_FAILED;
+            }
+            kernel.getProfiles().setSelectedProfile(p);
+        }
+        Downloader downloader = kernel.getDownloader();
+        DownloadListener listener = new DownloadListener() {
+            @Override
+            public void progressChanged(DownloadProgress progress) {
+                JSONObject o = event("progress");
+                o.put("progress", progress.getProgress());
+                o.put("currentFile", progress.getCurrentFile());
+                o.put("downloadedBytes", progress.getDownloadedBytes());
+                o.put("validatedBytes", progress.getValidatedBytes());
+                o.put("totalBytes", progress.getTotalBytes());
+                o.put("bytesPerSecond", (long) progress.getBytesPerSecond());
+                o.put("filesPerSecond", progress.getFilesPerSecond());
+                o.put("etaSeconds", progress.getEtaSeconds());
+                o.put("filesCompleted", progress.getFilesCompleted());
+                o.put("filesFailed", progress.getFilesFailed());
+                o.put("retries", progress.getRetries());
+                o.put("finished", progress.isFinished());
+                emit(o);
+            }
+        };
+        downloader.addListener(listener);
+        try {
+            switch (command) {
+                case "plan":
+                    return plan(downloader);
+                case "download":
+                    return download(downloader);
+                case "launch":
+                    int code = download(downloader);
+                    return code == EXIT_OK ? launch() : code;
+                case "export":
+                    return exportBundle(new File(file));
+                case "import":
+                    return importBundle(new File(file));
+                case "gc":
+                    return collectGarbage(dryRun);
+                default:
+                    error("Unknown command " + command);
+                    return EXIT_USAGE;
+            }
+        } finally {
+            downloader.removeListener(listener);
+        }
+    }
+
+    private int plan(Downloader downloader) {
+        try {
+            DownloadPlan plan = downloader.plan();
+            JSONObject o = event("plan");
+            o.put("version", plan.getVersion().getID());
+            o.put("missingFiles", plan.getMissingFiles());
+            o.put("missingBytes", plan.getMissingBytes());
+            o.put("criticalFiles", plan.getCritical().size());
+            o.put("backgroundFiles", plan.getBackground().size());
+            emit(o);
+            return EXIT_OK;
+        } catch (DownloaderException ex) {
+            ex.printStackTrace(kernel.getConsole().getWriter());
+            error(ex.getMessage());
+            return EXIT_FAILED;
+        }
+    }
+
+    private int download(Downloader downloader) {
+        try {
+            downloader.download();
+            downloader.awaitBackground();
+        } catch (DownloaderException ex) {
+            ex.printStackTrace(kernel.getConsole().getWriter());
+            error(ex.getMessage());
+            return EXIT_FAILED;
+        } catch (InterruptedException ex) {
+            error("Interrupted while downloading.");
+            return EXIT_FAILED;
+        }
+        emit(event("downloaded"));
+        return EXIT_OK;
+    }
+
+    private int launch() {
+        Authentication a = kernel.getAuthentication();
+        if (a.getSelectedUser() == null) {
+            error("No user is logged in. Log in once with the launcher interface.");
+            return EXIT_FAILED;
+        }
+        try {
+            a.refresh();
+        } catch (AuthenticationException | JSONException ex) {
+            ex.printStackTrace(kernel.getConsole().getWriter());
+            error("Failed to refresh the session of the selected user.");
+            return EXIT_FAILED;
+        }
+        kernel.saveProfiles();
+        GameLauncher gl = kernel.getGameLauncher();
+        final CountDownLatch exited = new CountDownLatch(1);
+        final AtomicInteger exitCode = new AtomicInteger();
+        GameListener listener = new GameListener() {
+            @Override
+            public void statsChanged(ProcessStats stats) {
+            }
+
+            @Override
+            public void gameExited(int code) {
+                exitCode.set(code);
+                exited.countDown();
+            }
+        };
+        gl.addListener(listener);
+        try {
+            gl.launch(null);
+            emit(event("started"));
+            exited.await();
+        } catch (GameLauncherException ex) {
+            ex.printStackTrace(kernel.getConsole().getWriter());
+            error(ex.getMessage());
+            return EXIT_FAILED;
+        } catch (InterruptedException ex) {
+            error("Interrupted while the game was running.");
+            return EXIT_FAILED;
+        } finally {
+            gl.removeListener(listener);
+        }
+        JSONObject o = event("exited");
+        o.put("exitCode", exitCode.get());
+        emit(o);
+        return exitCode.get() == 0 ? EXIT_OK : EXIT_FAILED;
+    }
+
+    private int exportBundle(File archive) {
+        Version v = getSelectedVersion();
+        if (v == null) {
+            error("The version of the profile could not be resolved.");
+            return EXIT_FAILED;
+        }
+        try {
+            int count = new OfflineBundle(kernel).exportVersion(v, archive);
+            JSONObject o = event("exported");
+            o.put("version", v.getID());
+            o.put("files", count);
+            o.put("archive", archive.getAbsolutePath());
+            emit(o);
+            return EXIT_OK;
+        } catch (IOException ex) {
+            ex.printStackTrace(kernel.getConsole().getWriter());
+            error(ex.getMessage());
+            return EXIT_FAILED;
+        }
+    }
+
+    private int importBundle(File archive) {
+        try {
+            String version = new OfflineBundle(kernel).importArchive(archive);
+            JSONObject o = event("imported");
+            o.put("version", version);
+            emit(o);
+            return EXIT_OK;
+        } catch (IOException ex) {
+            ex.printStackTrace(kernel.getConsole().getWriter());
+            error(ex.getMessage());
+            return EXIT_FAILED;
+        }
+    }
+
+    private int collectGarbage(boolean dryRun) {
+        try {
+            GarbageReport report = new GarbageCollector(kernel).collect(dryRun, GC_SLICE, GC_PAUSE);
+            JSONObject o = event("gc");
+            o.put("report", report.toJSON());
+            emit(o);
+            return EXIT_OK;
+        } catch (InterruptedException ex) {
+            error("Interrupted while collecting garbage.");
+            return EXIT_FAILED;
+        }
+    }
+
+    /**
+     * Resolves the version used by the selected profile
+     * @return The version or null if it could not be resolved
+     */
+    private Version getSelectedVersion() {
+        Profile p = kernel.getProfiles().getSelectedProfile();
+        Versions versions = kernel.getVersions();
+        VersionMeta meta;
+        switch (p.getType()) {
+            case CUSTOM:
+                meta = p.hasVersion() ? p.getVersionID() : versions.getLatestRelease();
+                break;
+            case RELEASE:
+                meta = versions.getLatestRelease();
+                break;
+            default:
+                meta = versions.getLatestSnapshot();
+                break;
+        }
+        return meta == null ? null : versions.getVersion(meta);
+    }
+
+    private static JSONObject event(String name) {
+        JSONObject o = new JSONObject();
+        o.put("event", name);
+        o.put("time", System.currentTimeMillis());
+        return o;
+    }
+
+    private void error(String message) {
+        JSONObject o = event("error");
+        o.put("message", message == null ? "Unknown error" : message);
+        emit(o);
+    }
+
+    private synchronized void emit(JSONObject o) {
+        out.println(o.toString());
+        out.flush();
+    }
+}
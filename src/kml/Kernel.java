@@ -15,7 +15,13 @@ import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
 import kml.auth.Authentication;
 import kml.game.GameLauncher;
+import kml.game.RuntimeRegistry;
 import kml.game.download.Downloader;
+import kml.game.download.HttpTransport;
+import kml.game.download.VerifiedFileIndex;
+import kml.game.download.ContentStore;
+import kml.game.download.LanCacheServer;
+import kml.game.download.IntegrityScrubber;
 import kml.game.profile.Profiles;
 import kml.game.version.Versions;
 import kml.gui.BrowserFX;
@@ -51,15 +57,20 @@ public final class Kernel {
     private final Versions versions;
     private final Settings settings;
     private final Downloader downloader;
+    private final VerifiedFileIndex verifiedFileIndex;
+    private final ContentStore contentStore;
+    private final LanCacheServer lanCacheServer;
+    private final IntegrityScrubber integrityScrubber;
     private final Authentication authentication;
     private final GameLauncher gameLauncher;
-    private final HostServices hostServices;
+    private final RuntimeRegistry runtimeRegistry;
+    private HostServices hostServices;
     private BrowserFX webBrowser;
     private JSONObject launcherProfiles;
     private final Map<String, int[]> icons = new HashMap<>();
     private final Map<String, Image> iconCache = new HashMap<>();
 
-    private final Image profileIcons;
+    private Image profileIcons;
     public static final String KERNEL_BUILD_NAME = "3.2.7";
     private static final int KERNEL_FORMAT = 21;
     private static final int KERNEL_PROFILES_FORMAT = 2;
@@ -70,7 +81,10 @@ public final class Kernel {
     public static Image APPLICATION_ICON;
     public static boolean USE_LOCAL;
 
-    public Kernel(Stage stage, HostServices hs) {
+    /**
+     * Loads the launcher data without the graphical interface
+     */
+    public Kernel() {
         if (!APPLICATION_WORKING_DIR.isDirectory()) {
             APPLICATION_WORKING_DIR.mkdirs();
         }
@@ -84,6 +98,57 @@ public final class Kernel {
         console.print("Java Version: " + System.getProperty("java.version"));
         console.print("Java Vendor: " + System.getProperty("java.vendor"));
         console.print("Java Architecture: " + System.getProperty("sun.arch.data.model"));
+        console.print("Reading launcher profiles...");
+        try {
+            if (APPLICATION_CONFIG.isFile()) {
+                String data = new String(Files.readAllBytes(APPLICATION_CONFIG.toPath()), StandardCharsets.UTF_8);
+                launcherProfiles = new JSONObject(data);
+            } else {
+                console.print("Launcher profiles file does not exists.");
+            }
+        } catch (MalformedURLException | JSONException e) {
+            console.print("Malformed launcher profiles file.");
+            e.printStackTrace(console.getWriter());
+        } catch (IOException ex) {
+            console.print("Failed to read launcher profiles file.");
+            ex.printStackTrace(console.getWriter());
+        }
+
+        //Load launcher data
+        profiles = new Profiles(this);
+        versions = new Versions(this);
+        settings = new Settings(this);
+        verifiedFileIndex = new VerifiedFileIndex(this);
+        contentStore = new ContentStore(this);
+        lanCacheServer = new LanCacheServer(this);
+        downloader = new Downloader(this);
+        authentication = new Authentication(this);
+        gameLauncher = new GameLauncher(this);
+        runtimeRegistry = new RuntimeRegistry(this);
+        integrityScrubber = new IntegrityScrubber(this);
+        settings.loadSettings();
+        HttpTransport.configureKeepAlive(settings.getDownloadThreadsPerHost());
+        verifiedFileIndex.load();
+        if (settings.getLanCacheServer()) {
+            try {
+                lanCacheServer.start(settings.getLanCacheAddress(), settings.getLanCachePort());
+            } catch (IOException ex) {
+                console.print("Failed to start LAN cache server.");
+                ex.printStackTrace(console.getWriter());
+            }
+        }
+        versions.fetchVersions();
+        profiles.fetchProfiles();
+        authentication.fetchUsers();
+    }
+
+    /**
+     * Loads the launcher data and shows the graphical interface
+     * @param stage The main stage
+     * @param hs The host services of the application
+     */
+    public Kernel(Stage stage, HostServices hs) {
+        this();
         try {
             Class.forName("javafx.fxml.FXMLLoader");
             console.print("JavaFX loaded.");
@@ -108,42 +173,15 @@ public final class Kernel {
                 warnJavaFX();
             }
         }
-        console.print("Reading launcher profiles...");
-        try {
-            if (APPLICATION_CONFIG.isFile()) {
-                String data = new String(Files.readAllBytes(APPLICATION_CONFIG.toPath()), StandardCharsets.UTF_8);
-                launcherProfiles = new JSONObject(data);
-            } else {
-                console.print("Launcher profiles file does not exists.");
-            }
-        } catch (MalformedURLException | JSONException e) {
-            console.print("Malformed launcher profiles file.");
-            e.printStackTrace(console.getWriter());
-        } catch (IOException ex) {
-            console.print("Failed to read launcher profiles file.");
-            ex.printStackTrace(console.getWriter());
-        }
 
         //Initialize constants
         APPLICATION_ICON = new Image("/kml/gui/textures/icon.png");
         profileIcons = new Image("/kml/gui/textures/profile_icons.png");
+        hostServices = hs;
 
         //Prepare loader
         FXMLLoader loader = new FXMLLoader();
 
-        //Load launcher data
-        profiles = new Profiles(this);
-        versions = new Versions(this);
-        settings = new Settings(this);
-        downloader = new Downloader(this);
-        authentication = new Authentication(this);
-        gameLauncher = new GameLauncher(this);
-        hostServices = hs;
-        settings.loadSettings();
-        versions.fetchVersions();
-        profiles.fetchProfiles();
-        authentication.fetchUsers();
-
         //Load web browser
         Scene browser = null;
         try {
@@ -168,18 +206,14 @@ public final class Kernel {
             final Scene main = new Scene(p);
             stage.getIcons().add(APPLICATION_ICON);
             stage.setTitle("Krothium Minecraft Launcher");
-            stage.setOnCloseRequest(new EventHandler<WindowEvent>() {
-                @Override
-                public void handle(WindowEvent event) {
-                    exitSafely();
-                }
-            });
+            Interface.exitOnClose(stage, this);
             stage.setScene(main);
             stage.setHeight(settings.getLauncherHeight());
             stage.setWidth(settings.getLauncherWidth());
             MainFX mainForm = loader.getController();
             mainForm.initialize(this, stage, main, browser);
             stage.show();
+            integrityScrubber.start();
         } catch (IOException e) {
             console.print("Failed to initialize main interface.");
             e.printStackTrace(console.getWriter());
@@ -263,6 +297,22 @@ public final class Kernel {
         return downloader;
     }
 
+    public VerifiedFileIndex getVerifiedFileIndex() {
+        return verifiedFileIndex;
+    }
+
+    public ContentStore getContentStore() {
+        return contentStore;
+    }
+
+    public LanCacheServer getLanCacheServer() {
+        return lanCacheServer;
+    }
+
+    public IntegrityScrubber getIntegrityScrubber() {
+        return integrityScrubber;
+    }
+
     public Authentication getAuthentication() {
         return authentication;
     }
@@ -275,11 +325,18 @@ public final class Kernel {
         return gameLauncher;
     }
 
+    public RuntimeRegistry getRuntimeRegistry() {
+        return runtimeRegistry;
+    }
+
     /**
      * Saves the profiles and shuts down the launcher
      */
     public void exitSafely() {
         console.print("Shutting down launcher...");
+        lanCacheServer.stop();
+        integrityScrubber.stop();
+        downloader.shutdown();
         console.close();
         saveProfiles();
         System.exit(0);
@@ -388,12 +445,9 @@ public final class Kernel {
             }
             coords = icons.get("Furnace");
         }
-        WritableImage wi = new WritableImage(68, 68);
-        PixelWriter pw = wi.getPixelWriter();
-        PixelReader pr = profileIcons.getPixelReader();
-        pw.setPixels(0, 0, 68, 68, pr, coords[0] * 68, coords[1] * 68);
-        iconCache.put(profileIcon, wi);
-        return wi;
+        Image icon = Interface.crop(profileIcons, coords[0] * 68, coords[1] * 68, 68);
+        iconCache.put(profileIcon, icon);
+        return icon;
     }
 
     /**
@@ -419,4 +473,43 @@ public final class Kernel {
         }
         return -1;
     }
+
+    /**
+     * Interface code that converts JavaFX types. The JVM loads the involved types when it verifies such code
+     * so it is kept out of the kernel, which has to load without JavaFX when running headless.
+     */
+    private static final class Interface {
+        private Interface() {
+        }
+
+        /**
+         * Shuts down the launcher when a stage is closed
+         * @param stage The stage
+         * @param kernel The kernel to shut down
+         */
+        static void exitOnClose(Stage stage, final Kernel kernel) {
+            stage.setOnCloseRequest(new EventHandler<WindowEvent>() {
+                @Override
+                public void handle(WindowEvent event) {
+                    kernel.exitSafely();
+                }
+            });
+        }
+
+        /**
+         * Copies a square region of an image
+         * @param source The source image
+         * @param x The left coordinate of the region
+         * @param y The top coordinate of the region
+         * @param size The size of the region
+         * @return The copied region
+         */
+        static Image crop(Image source, int x, int y, int size) {
+            WritableImage wi = new WritableImage(size, size);
+            PixelWriter pw = wi.getPixelWriter();
+            PixelReader pr = source.getPixelReader();
+            pw.setPixels(0, 0, size, size, pr, x, y);
+            return wi;
+        }
+    }
 }
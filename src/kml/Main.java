@@ -0,0 +1,26 @@
+package kml;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public final class Main {
+    private Main() {
+    }
+
+    /**
+     * Starts the launcher. The interface classes are only loaded when it is not running headless so the
+     * headless commands work on runtimes without JavaFX.
+     * @param args The launcher arguments
+     */
+    public static void main(String[] args) {
+        for (String arg : args) {
+            if ("--headless".equals(arg)) {
+                HeadlessLauncher.main(args);
+                return;
+            }
+        }
+        Starter.launchInterface(args);
+    }
+}
@@ -1,11 +1,12 @@
 package kml;
 
 import kml.gui.lang.Language;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.*;
 
 /**
  * @author DarkLBP
@@ -18,6 +19,14 @@ public class Settings {
     private final HashMap<String, String> supportedLocales = new HashMap<>();
     private boolean keepLauncherOpen, showGameLog, enableAdvanced, enableHistorical, enableSnapshots;
     private double launcherWidth, launcherHeight;
+    private int downloadThreads = 16, downloadThreadsPerHost = 8;
+    private final Map<String, List<String>> mirrors = new LinkedHashMap<>();
+    private String sharedStorePath = "";
+    private boolean lanCacheServer;
+    private int lanCachePort = 25580;
+    private String lanCacheHost = "";
+    private String lanCacheAddress = "";
+    private int scrubberRate = 4096;
 
 
     public Settings(Kernel k) {
@@ -75,6 +84,42 @@ public class Settings {
                         launcherWidth = 850;
                         launcherHeight = 700;
                     }
+                    if (settings.has("downloadThreads")) {
+                        setDownloadThreads(settings.getInt("downloadThreads"));
+                    }
+                    if (settings.has("downloadThreadsPerHost")) {
+                        setDownloadThreadsPerHost(settings.getInt("downloadThreadsPerHost"));
+                    }
+                    if (settings.has("sharedStorePath")) {
+                        sharedStorePath = settings.getString("sharedStorePath");
+                    }
+                    if (settings.has("lanCacheServer")) {
+                        lanCacheServer = settings.getBoolean("lanCacheServer");
+                    }
+                    if (settings.has("lanCachePort")) {
+                        setLanCachePort(settings.getInt("lanCachePort"));
+                    }
+                    if (settings.has("lanCacheHost")) {
+                        lanCacheHost = settings.getString("lanCacheHost");
+                    }
+                    if (settings.has("lanCacheAddress")) {
+                        setLanCacheAddress(settings.getString("lanCacheAddress"));
+                    }
+                    if (settings.has("scrubberRate")) {
+                        setScrubberRate(settings.getInt("scrubberRate"));
+                    }
+                    mirrors.clear();
+                    if (settings.has("mirrors")) {
+                        JSONObject m = settings.getJSONObject("mirrors");
+                        for (String origin : m.keySet()) {
+                            JSONArray list = m.getJSONArray(origin);
+                            List<String> bases = new ArrayList<>();
+                            for (int i = 0; i < list.length(); i++) {
+                                bases.add(list.getString(i));
+                            }
+                            setMirrors(origin, bases);
+                        }
+                    }
                 } catch (JSONException ex) {
                     console.print("Failed to load settings.");
                     ex.printStackTrace(console.getWriter());
@@ -243,6 +288,155 @@ public class Settings {
         this.launcherHeight = launcherHeight;
     }
 
+    /**
+     * Returns the maximum number of simultaneous downloads
+     * @return The download worker count
+     */
+    public int getDownloadThreads() {
+        return downloadThreads;
+    }
+
+    /**
+     * Sets the maximum number of simultaneous downloads
+     * @param threads The download worker count (1 to 64)
+     */
+    public void setDownloadThreads(int threads) {
+        downloadThreads = Math.max(1, Math.min(64, threads));
+    }
+
+    /**
+     * Returns the maximum number of simultaneous downloads against a single host
+     * @return The per host download limit
+     */
+    public int getDownloadThreadsPerHost() {
+        return downloadThreadsPerHost;
+    }
+
+    /**
+     * Sets the maximum number of simultaneous downloads against a single host
+     * @param threads The per host download limit (1 to 64)
+     */
+    public void setDownloadThreadsPerHost(int threads) {
+        downloadThreadsPerHost = Math.max(1, Math.min(64, threads));
+    }
+
+    /**
+     * Returns the configured download mirrors
+     * @return A map of origin base URLs to the base URLs of their mirrors
+     */
+    public Map<String, List<String>> getMirrors() {
+        return Collections.unmodifiableMap(mirrors);
+    }
+
+    /**
+     * Sets the mirrors of a download origin. Base URLs must end with a slash since resource paths are appended to them.
+     * @param origin The base URL of the origin
+     * @param bases The base URLs of the mirrors, an empty list removes them
+     */
+    public void setMirrors(String origin, List<String> bases) {
+        if (bases.isEmpty()) {
+            mirrors.remove(origin);
+        } else {
+            mirrors.put(origin, new ArrayList<>(bases));
+        }
+    }
+
+    /**
+     * Returns the folder of the shared store of libraries and client jars
+     * @return The configured path or an empty String to use the default one
+     */
+    public String getSharedStorePath() {
+        return sharedStorePath;
+    }
+
+    /**
+     * Sets the folder of the shared store. Working directories pointing to the same folder store identical files once.
+     * @param path The folder path or an empty String to use the default one
+     */
+    public void setSharedStorePath(String path) {
+        sharedStorePath = path == null ? "" : path;
+    }
+
+    /**
+     * Returns if this launcher should serve its files to the other launchers of the network
+     * @return If the LAN cache server is enabled
+     */
+    public boolean getLanCacheServer() {
+        return lanCacheServer;
+    }
+
+    /**
+     * Changes if this launcher should serve its files to the other launchers of the network
+     * @param b The new value
+     */
+    public void setLanCacheServer(boolean b) {
+        lanCacheServer = b;
+    }
+
+    /**
+     * Returns the port of the LAN cache server
+     * @return The port
+     */
+    public int getLanCachePort() {
+        return lanCachePort;
+    }
+
+    /**
+     * Sets the port of the LAN cache server
+     * @param port The port (1 to 65535)
+     */
+    public void setLanCachePort(int port) {
+        lanCachePort = Math.max(1, Math.min(65535, port));
+    }
+
+    /**
+     * Returns the local address the LAN cache server listens on
+     * @return The address or an empty String to use the LAN address of this machine
+     */
+    public String getLanCacheAddress() {
+        return lanCacheAddress;
+    }
+
+    /**
+     * Sets the local address the LAN cache server listens on
+     * @param address The address or an empty String to use the LAN address of this machine
+     */
+    public void setLanCacheAddress(String address) {
+        lanCacheAddress = address == null ? "" : address.trim();
+    }
+
+    /**
+     * Returns the LAN cache server used to download files
+     * @return The host and port of the server or an empty String if none is used
+     */
+    public String getLanCacheHost() {
+        return lanCacheHost;
+    }
+
+    /**
+     * Sets the LAN cache server used to download files before the upstream hosts
+     * @param host The host and port of the server or an empty String to disable it
+     */
+    public void setLanCacheHost(String host) {
+        lanCacheHost = host == null ? "" : host.trim();
+    }
+
+    /**
+     * Returns how fast the installed files are verified while the launcher is idle
+     * @return The rate in KB per second or 0 if the integrity scrubber is disabled
+     */
+    public int getScrubberRate() {
+        return scrubberRate;
+    }
+
+    /**
+     * Sets how fast the installed files are verified while the launcher is idle
+     * @param rate The rate in KB per second or 0 to disable the integrity scrubber
+     */
+    public void setScrubberRate(int rate) {
+        scrubberRate = Math.max(0, rate);
+    }
+
     /**
      * Converts the settings to JSON
      * @return The json conversion of the settings
@@ -257,6 +451,21 @@ public class Settings {
         o.put("enableSnapshots", this.enableSnapshots);
         o.put("launcherWidth", this.launcherWidth);
         o.put("launcherHeight", this.launcherHeight);
+        o.put("downloadThreads", this.downloadThreads);
+        o.put("downloadThreadsPerHost", this.downloadThreadsPerHost);
+        o.put("sharedStorePath", this.sharedStorePath);
+        o.put("lanCacheServer", this.lanCacheServer);
+        o.put("lanCachePort", this.lanCachePort);
+        o.put("lanCacheHost", this.lanCacheHost);
+        o.put("lanCacheAddress", this.lanCacheAddress);
+        o.put("scrubberRate", this.scrubberRate);
+        if (!mirrors.isEmpty()) {
+            JSONObject m = new JSONObject();
+            for (Map.Entry<String, List<String>> e : mirrors.entrySet()) {
+                m.put(e.getKey(), new JSONArray(e.getValue()));
+            }
+            o.put("mirrors", m);
+        }
         return o;
     }
 }
@@ -10,7 +10,15 @@ import javafx.stage.Stage;
 public class Starter extends Application {
 
     public static void main(String[] args) {
-        launch(args);
+        Main.main(args);
+    }
+
+    /**
+     * Starts the launcher interface
+     * @param args The launcher arguments
+     */
+    static void launchInterface(String[] args) {
+        launch(Starter.class, args);
     }
 
 
@@ -0,0 +1,14 @@
+package kml.exceptions;
+
+import java.io.IOException;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class CircuitOpenException extends IOException {
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
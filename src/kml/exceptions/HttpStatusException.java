@@ -0,0 +1,21 @@
+package kml.exceptions;
+
+import java.io.IOException;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class HttpStatusException extends IOException {
+    private final int statusCode;
+
+    public HttpStatusException(String message, int statusCode) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
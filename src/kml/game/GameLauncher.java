@@ -7,13 +7,14 @@ import javafx.scene.Scene;
 import javafx.stage.Stage;
 import kml.Console;
 import kml.Kernel;
-import kml.OSArch;
 import kml.gui.MainFX;
 import kml.utils.Utils;
-import kml.auth.Authentication;
 import kml.auth.user.User;
 import kml.auth.user.UserType;
 import kml.exceptions.GameLauncherException;
+import kml.game.download.Downloadable;
+import kml.game.download.VirtualAssets;
+import kml.game.profile.JvmPreset;
 import kml.game.profile.Profile;
 import kml.game.version.Version;
 import kml.game.version.VersionMeta;
@@ -22,33 +23,38 @@ import kml.game.version.asset.AssetIndex;
 import kml.game.version.library.Library;
 import kml.gui.OutputFX;
 import kml.gui.lang.Language;
-import org.json.JSONObject;
 
 import java.io.*;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * @author DarkLBP
  *         website https://krothium.com
  */
 public class GameLauncher {
+    private static final File CDS_ROOT = new File(Kernel.APPLICATION_CACHE, "cds");
 
     private final Console console;
     private final Kernel kernel;
     private Process process;
     private OutputFX output;
     private Stage outputGUI;
+    private ProcessSupervisor supervisor;
+    private final NativesCache nativesCache;
+    private final List<GameListener> listeners = new CopyOnWriteArrayList<>();
 
     public GameLauncher(Kernel k) {
         kernel = k;
         console = k.getConsole();
+        nativesCache = new NativesCache(console);
     }
 
     /**
      * Prepares and launcher the game
+     * @param mainFX The launcher interface to be notified when the game ends or null when running headless
      * @throws GameLauncherException If an error has been thrown
      */
     public final void launch(final MainFX mainFX) throws GameLauncherException {
@@ -73,7 +79,118 @@ public class GameLauncher {
         if (verID == null) {
             throw new GameLauncherException("Version ID is null.");
         }
-        Version ver = versions.getVersion(verID);
+        File workingDir = Kernel.APPLICATION_WORKING_DIR;
+        User u = kernel.getAuthentication().getSelectedUser();
+        RuntimeRegistry registry = kernel.getRuntimeRegistry();
+        String key = LaunchPlan.getKey(p, verID.getID(), u.getType(), p.hasJavaDir() ? null : registry.getFingerprint());
+        LaunchPlan plan = LaunchPlan.load(p, key, console);
+        if (plan == null) {
+            if (!p.hasJavaDir()) {
+                //Installed runtimes are only looked for when the plan has to be built again
+                registry.scan();
+                key = LaunchPlan.getKey(p, verID.getID(), u.getType(), registry.getFingerprint());
+            }
+            plan = buildPlan(p, verID, u, key);
+        } else {
+            console.print("Using cached launch plan of Minecraft " + verID.getID());
+        }
+        final File nativesDir = plan.getNativesDir();
+        if (!plan.getGameDir().isDirectory()) {
+            plan.getGameDir().mkdirs();
+        }
+        List<String> gameArgs = plan.getCommand(u);
+        console.print("Full game launcher parameters: ");
+        for (String arg : gameArgs) {
+            console.print(arg);
+        }
+        ProcessBuilder pb = new ProcessBuilder(gameArgs);
+        pb.directory(workingDir);
+        try {
+            process = pb.start();
+            if (mainFX != null && kernel.getSettings().getShowGameLog()) {
+                Platform.runLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        FXMLLoader loader = new FXMLLoader();
+                        loader.setLocation(GameLauncher.this.getClass().getResource("/kml/gui/fxml/Output.fxml"));
+                        Parent parent;
+                        try {
+                            parent = loader.load();
+                        } catch (IOException e) {
+                            parent = null;
+                            console.print("Failed to initialize Output GUI!");
+                            e.printStackTrace(console.getWriter());
+                        }
+                        Stage stage = new Stage();
+                        stage.getIcons().add(Kernel.APPLICATION_ICON);
+                        stage.setTitle("Krothium Minecraft Launcher - " + Language.get(69));
+                        stage.setScene(new Scene(parent));
+                        stage.setResizable(true);
+                        stage.setMaximized(false);
+                        stage.show();
+                        output = loader.getController();
+                        outputGUI = stage;
+                    }
+                });
+            }
+            Thread log_info = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    GameLauncher.this.pipeOutput(process.getInputStream());
+                }
+            });
+            log_info.start();
+            Thread log_error = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    GameLauncher.this.pipeOutput(process.getErrorStream());
+                }
+            });
+            log_error.start();
+            supervisor = new ProcessSupervisor(process, verID.getID(), p.getID(), gameArgs, console);
+            supervisor.start(new GameListener() {
+                @Override
+                public void statsChanged(ProcessStats stats) {
+                    if (outputGUI != null && outputGUI.isShowing()) {
+                        output.updateStats(stats);
+                    }
+                    for (GameListener l : listeners) {
+                        l.statsChanged(stats);
+                    }
+                }
+
+                @Override
+                public void gameExited(int exitCode) {
+                    boolean error = exitCode != 0;
+                    if (error) {
+                        console.print("Game stopped unexpectedly.");
+                    }
+                    nativesCache.release(nativesDir);
+                    if (mainFX != null) {
+                        mainFX.gameEnded(error);
+                    }
+                    for (GameListener l : listeners) {
+                        l.gameExited(exitCode);
+                    }
+                }
+            });
+        } catch (IOException ex) {
+            ex.printStackTrace(console.getWriter());
+            throw new GameLauncherException("Game returned an error code.");
+        }
+    }
+
+    /**
+     * Resolves the version of a profile and builds its launch plan
+     * @param p The profile
+     * @param verID The version of the profile
+     * @param u The selected user
+     * @param key The key of the plan
+     * @return The launch plan
+     * @throws GameLauncherException If the version could not be resolved
+     */
+    private LaunchPlan buildPlan(Profile p, VersionMeta verID, User u, String key) throws GameLauncherException {
+        Version ver = kernel.getVersions().getVersion(verID);
         if (ver == null) {
             throw new GameLauncherException("Version info could not be obtained.");
         }
@@ -90,39 +207,72 @@ public class GameLauncher {
                 }
             }
         }
-        final File nativesDir = new File(workingDir, "versions" + File.separator + ver.getID() + File.separator + ver.getID() + "-natives-" + System.nanoTime());
-        if (!nativesDir.isDirectory()) {
-            nativesDir.mkdirs();
-        }
         console.print("Launching Minecraft " + ver.getID() + " on " + workingDir.getAbsolutePath());
+        List<Library> libs = ver.getLibraries();
+        List<Library> nativeLibs = new ArrayList<>();
+        for (Library lib : libs) {
+            if (lib.isCompatible() && lib.isNative()) {
+                if (lib.hasClassifierDownload()) {
+                    resolve(lib.getClassifierDownload(), new File(Kernel.APPLICATION_WORKING_DIR + File.separator + lib.getRelativeNativePath()));
+                }
+                nativeLibs.add(lib);
+            }
+        }
+        File nativesDir = nativesCache.prepare(nativeLibs);
         console.print("Using natives dir: " + nativesDir);
-        console.print("Extracting natives.");
-        List<String> gameArgs = new ArrayList<>();
+        List<String> jvmArgs = new ArrayList<>();
+        RuntimeRegistry registry = kernel.getRuntimeRegistry();
+        JavaRuntime runtime = null;
+        File java;
         if (p.hasJavaDir()) {
-            gameArgs.add(p.getJavaDir().getAbsolutePath());
+            java = p.getJavaDir();
         } else {
-            gameArgs.add(Utils.getJavaDir());
+            java = new File(Utils.getJavaDir());
+            runtime = registry.get(java);
+            if (runtime == null || runtime.getMajorVersion() >= ver.getJavaVersion()) {
+                console.print("Using the launcher runtime " + (runtime != null ? runtime : java) + '.');
+            } else {
+                //Another runtime is only chosen when the launcher one cannot run the version
+                JavaRuntime selected = registry.select(ver.getJavaVersion());
+                if (selected != null) {
+                    console.print("The launcher runtime " + runtime.getVersion() + " does not meet Java "
+                            + ver.getJavaVersion() + ". Selected Java runtime " + selected);
+                    runtime = selected;
+                    java = selected.getExecutable();
+                } else {
+                    console.print("No installed Java runtime meets Java " + ver.getJavaVersion() + ". Using the launcher runtime.");
+                }
+            }
         }
+        jvmArgs.add(java.getAbsolutePath());
         if (!p.hasJavaArgs()) {
-            if (Utils.getOSArch() == OSArch.OLD) {
-                gameArgs.add("-Xmx1G");
-                gameArgs.add("-Xss1M");
-            } else {
-                gameArgs.add("-Xmx2G");
+            if (runtime == null && p.getJvmPreset() != JvmPreset.CLASSIC) {
+                runtime = registry.get(java);
+            }
+            if (runtime != null && runtime.getMajorVersion() < ver.getJavaVersion()) {
+                console.print("Minecraft " + ver.getID() + " requires Java " + ver.getJavaVersion() + " but " + runtime.getVersion() + " is selected.");
+            }
+            List<String> presetArgs = JvmTuning.getArguments(p.getJvmPreset(), runtime, ver.getJavaVersion());
+            console.print("Using JVM preset " + p.getJvmPreset().name() + ": " + presetArgs);
+            jvmArgs.addAll(presetArgs);
+            if (runtime != null && p.getJvmPreset() != JvmPreset.CLASSIC) {
+                List<String> sharingArgs = JvmTuning.getSharingArguments(runtime, getSharedArchive(ver.getID(), runtime));
+                if (!sharingArgs.isEmpty()) {
+                    CDS_ROOT.mkdirs();
+                    console.print("Using class data sharing archive: " + sharingArgs);
+                    jvmArgs.addAll(sharingArgs);
+                }
             }
-            gameArgs.add("-Xmn128M");
         } else {
             String javaArgs = p.getJavaArgs();
             String[] args = javaArgs.split(" ");
-            Collections.addAll(gameArgs, args);
+            Collections.addAll(jvmArgs, args);
         }
-        gameArgs.add("-Djava.library.path=" + nativesDir.getAbsolutePath());
-        gameArgs.add("-cp");
+        jvmArgs.add("-Djava.library.path=" + nativesDir.getAbsolutePath());
+        jvmArgs.add("-cp");
         StringBuilder libraries = new StringBuilder();
-        List<Library> libs = ver.getLibraries();
         String separator = System.getProperty("path.separator");
-        Authentication a = kernel.getAuthentication();
-        User u = a.getSelectedUser();
+        List<String> classpath = new ArrayList<>();
         if (u.getType() == UserType.KROTHIUM) {
             try {
                 File launchPath = new File(GameLauncher.class.getProtectionDomain().getCodeSource().getLocation().toURI().getPath());
@@ -132,86 +282,47 @@ public class GameLauncher {
             }
         }
         for (Library lib : libs) {
-            if (!lib.isCompatible()) {
+            if (!lib.isCompatible() || lib.isNative()) {
                 continue;
             }
-            if (lib.isNative()) {
-                try {
-                    File completePath = new File(Kernel.APPLICATION_WORKING_DIR + File.separator + lib.getRelativeNativePath());
-                    FileInputStream input = new FileInputStream(completePath);
-                    Utils.decompressZIP(input, nativesDir, lib.getExtractExclusions());
-                } catch (IOException ex) {
-                    console.print("Failed to extract native: " + lib.getName());
-                    ex.printStackTrace(console.getWriter());
-                }
-            } else {
-                File completePath = new File(Kernel.APPLICATION_WORKING_DIR + File.separator + lib.getRelativePath());
-                libraries.append(completePath.getAbsolutePath()).append(separator);
+            File completePath = new File(Kernel.APPLICATION_WORKING_DIR + File.separator + lib.getRelativePath());
+            if (lib.hasArtifactDownload()) {
+                resolve(lib.getArtifactDownload(), completePath);
             }
+            libraries.append(completePath.getAbsolutePath()).append(separator);
+            classpath.add(completePath.getAbsolutePath());
         }
         console.print("Preparing game args.");
         File verPath = new File(Kernel.APPLICATION_WORKING_DIR + File.separator + ver.getRelativeJar());
+        if (ver.getDownloads().containsKey("client")) {
+            resolve(ver.getDownloads().get("client"), verPath);
+        }
         libraries.append(verPath.getAbsolutePath());
+        classpath.add(verPath.getAbsolutePath());
         File assetsDir;
         AssetIndex index = ver.getAssetIndex();
         File assetsRoot = new File(workingDir, "assets");
         if ("legacy".equals(index.getID())) {
-            assetsDir = new File(assetsRoot, "virtual" + File.separator + "legacy");
-            if (!assetsDir.isDirectory()) {
-                assetsDir.mkdirs();
-            }
-            console.print("Building virtual asset folder.");
-            File indexJSON = new File(assetsRoot, "indexes" + File.separator + index.getID() + ".json");
-            try {
-                JSONObject o = new JSONObject(new String(Files.readAllBytes(indexJSON.toPath()), "ISO-8859-1"));
-                JSONObject objects = o.getJSONObject("objects");
-                Set s = objects.keySet();
-                for (Object value : s) {
-                    String name = value.toString();
-                    File assetFile = new File(assetsDir, name);
-                    JSONObject asset = objects.getJSONObject(name);
-                    String sha = asset.getString("hash");
-                    if (!Utils.verifyChecksum(assetFile, sha, "SHA-1")) {
-                        File objectFile = new File(assetsRoot, "objects" + File.separator + sha.substring(0, 2) + File.separator + sha);
-                        if (assetFile.getParentFile() != null) {
-                            assetFile.getParentFile().mkdirs();
-                        }
-                        Files.copy(objectFile.toPath(), assetFile.toPath());
-                    }
-                }
-            } catch (Exception ex) {
-                console.print("Failed to create virtual asset folder.");
-                ex.printStackTrace(console.getWriter());
-            }
+            assetsDir = new VirtualAssets(console).build(index);
         } else {
             assetsDir = assetsRoot;
         }
-        gameArgs.add(libraries.toString());
+        jvmArgs.add(libraries.toString());
         if (u.getType() == UserType.KROTHIUM) {
-            gameArgs.add("kml.game.GameStarter");
+            jvmArgs.add("kml.game.GameStarter");
         }
-        gameArgs.add(ver.getMainClass());
-        console.print("Full game launcher parameters: ");
+        jvmArgs.add(ver.getMainClass());
+        File gameDir = p.hasGameDir() ? p.getGameDir() : workingDir;
+        //User dependent arguments are kept as placeholders and resolved by the plan on each launch
         String[] versionArgs = ver.getMinecraftArguments().split(" ");
         for (int i = 0; i < versionArgs.length; i++) {
             if (versionArgs[i].startsWith("$")) {
                 switch (versionArgs[i]) {
-                    case "${auth_player_name}":
-                        versionArgs[i] = versionArgs[i].replace("${auth_player_name}", u.getDisplayName());
-                        break;
                     case "${version_name}":
                         versionArgs[i] = versionArgs[i].replace("${version_name}", ver.getID());
                         break;
                     case "${game_directory}":
-                        if (p.hasGameDir()) {
-                            File gameDir = p.getGameDir();
-                            if (!gameDir.isDirectory()) {
-                                gameDir.mkdirs();
-                            }
-                            versionArgs[i] = versionArgs[i].replace("${game_directory}", gameDir.getAbsolutePath());
-                        } else {
-                            versionArgs[i] = versionArgs[i].replace("${game_directory}", workingDir.getAbsolutePath());
-                        }
+                        versionArgs[i] = versionArgs[i].replace("${game_directory}", gameDir.getAbsolutePath());
                         break;
                     case "${assets_root}":
                         versionArgs[i] = versionArgs[i].replace("${assets_root}", assetsDir.getAbsolutePath());
@@ -222,12 +333,6 @@ public class GameLauncher {
                     case "${assets_index_name}":
                         versionArgs[i] = versionArgs[i].replace("${assets_index_name}", index.getID());
                         break;
-                    case "${auth_uuid}":
-                        versionArgs[i] = versionArgs[i].replace("${auth_uuid}", u.getSelectedProfile());
-                        break;
-                    case "${auth_access_token}":
-                        versionArgs[i] = versionArgs[i].replace("${auth_access_token}", u.getAccessToken());
-                        break;
                     case "${version_type}":
                         versionArgs[i] = versionArgs[i].replace("${version_type}", ver.getType().name());
                         break;
@@ -237,12 +342,10 @@ public class GameLauncher {
                     case "${user_type}":
                         versionArgs[i] = versionArgs[i].replace("${user_type}", "mojang");
                         break;
-                    case "${auth_session}":
-                        versionArgs[i] = versionArgs[i].replace("${auth_session}", "token:" + u.getAccessToken() + ':' + u.getSelectedProfile().replace("-", ""));
-                        break;
                 }
             }
         }
+        List<String> gameArgs = new ArrayList<>();
         Collections.addAll(gameArgs, versionArgs);
         if (p.hasResolution()) {
             gameArgs.add("--width");
@@ -250,86 +353,43 @@ public class GameLauncher {
             gameArgs.add("--height");
             gameArgs.add(String.valueOf(p.getResolutionHeight()));
         }
-        for (String arg : gameArgs) {
-            console.print(arg);
+        boolean virtualAssets = !assetsDir.equals(assetsRoot);
+        LaunchPlan plan = new LaunchPlan(key, LaunchPlan.getInputs(ver.getID()), jvmArgs, gameArgs, classpath,
+                nativesDir, assetsDir, gameDir, virtualAssets);
+        //Plans depending on temporary or incomplete files are only used once
+        if (plan.isCacheable()) {
+            plan.save(p, console);
         }
-        ProcessBuilder pb = new ProcessBuilder(gameArgs);
-        pb.directory(workingDir);
-        try {
-            process = pb.start();
-            if (kernel.getSettings().getShowGameLog()) {
-                Platform.runLater(new Runnable() {
-                    @Override
-                    public void run() {
-                        FXMLLoader loader = new FXMLLoader();
-                        loader.setLocation(GameLauncher.this.getClass().getResource("/kml/gui/fxml/Output.fxml"));
-                        Parent parent;
-                        try {
-                            parent = loader.load();
-                        } catch (IOException e) {
-                            parent = null;
-                            console.print("Failed to initialize Output GUI!");
-                            e.printStackTrace(console.getWriter());
-                        }
-                        Stage stage = new Stage();
-                        stage.getIcons().add(Kernel.APPLICATION_ICON);
-                        stage.setTitle("Krothium Minecraft Launcher - " + Language.get(69));
-                        stage.setScene(new Scene(parent));
-                        stage.setResizable(true);
-                        stage.setMaximized(false);
-                        stage.show();
-                        output = loader.getController();
-                        outputGUI = stage;
-                    }
-                });
-            }
-            Thread log_info = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    GameLauncher.this.pipeOutput(process.getInputStream());
-                }
-            });
-            log_info.start();
-            Thread log_error = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    GameLauncher.this.pipeOutput(process.getErrorStream());
-                }
-            });
-            log_error.start();
-            final Timer timer = new Timer();
-            TimerTask process_status = new TimerTask() {
-                @Override
-                public void run() {
-                    if (!GameLauncher.this.isRunning()) {
-                        boolean error;
-                        if (GameLauncher.this.process.exitValue() != 0) {
-                            error = true;
-                            GameLauncher.this.console.print("Game stopped unexpectedly.");
-                        } else {
-                            error = false;
-                        }
-                        GameLauncher.this.console.print("Deleteting natives dir.");
-                        Utils.deleteDirectory(nativesDir);
-                        timer.cancel();
-                        timer.purge();
-                        mainFX.gameEnded(error);
-                    }
-                }
-            };
-            timer.schedule(process_status, 0, 25);
-        } catch (IOException ex) {
-            ex.printStackTrace(console.getWriter());
-            throw new GameLauncherException("Game returned an error code.");
+        return plan;
+    }
+
+    /**
+     * Restores a missing library or jar from the shared store, needed when downloads are skipped in offline mode
+     * @param d The Downloadable of the file
+     * @param path The path where the file is expected
+     */
+    private void resolve(Downloadable d, File path) {
+        if (!path.isFile() && d.getHash() != null && kernel.getContentStore().materialize(d.getHash(), d.getSize(), path)) {
+            console.print("Restored " + path.getName() + " from the shared store.");
         }
     }
 
+    /**
+     * Returns the class data sharing archive a runtime creates for a version
+     * @param versionID The id of the version
+     * @param runtime The runtime running the game
+     * @return The archive file, it may not exist
+     */
+    public static File getSharedArchive(String versionID, JavaRuntime runtime) {
+        return new File(CDS_ROOT, versionID + '-' + runtime.getVersion() + ".jsa");
+    }
+
     private void pipeOutput(InputStream in) {
         try (InputStreamReader isr = new InputStreamReader(in, StandardCharsets.ISO_8859_1);
              BufferedReader br = new BufferedReader(isr)){
             String lineRead;
             while ((lineRead = br.readLine()) != null) {
-                if (kernel.getSettings().getShowGameLog() && outputGUI.isShowing()) {
+                if (outputGUI != null && outputGUI.isShowing()) {
                     output.pushString(lineRead);
                 }
                 console.print(lineRead);
@@ -340,6 +400,22 @@ public class GameLauncher {
         }
     }
 
+    /**
+     * Registers a listener that will be notified of the resource usage and the exit of every launched game
+     * @param listener The listener to be added
+     */
+    public final void addListener(GameListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a game listener
+     * @param listener The listener to be removed
+     */
+    public final void removeListener(GameListener listener) {
+        listeners.remove(listener);
+    }
+
     /**
      * Checks if the game process is running
      * @return A boolean with the current state
@@ -348,4 +424,12 @@ public class GameLauncher {
         return process != null && process.isAlive();
     }
 
+    /**
+     * Gets the latest resource usage of the game process
+     * @return The latest sample or null if the game is not running or it could not be sampled
+     */
+    public final ProcessStats getStats() {
+        return isRunning() && supervisor != null ? supervisor.getStats() : null;
+    }
+
 }
@@ -0,0 +1,20 @@
+package kml.game;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public interface GameListener {
+    /**
+     * Called from the supervisor thread each time the game process is sampled
+     * @param stats The latest sample
+     */
+    void statsChanged(ProcessStats stats);
+
+    /**
+     * Called from the supervisor thread once the game process has exited
+     * @param exitCode The exit code of the process
+     */
+    void gameExited(int exitCode);
+}
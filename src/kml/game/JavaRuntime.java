@@ -0,0 +1,222 @@
+package kml.game;
+
+import kml.Console;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class JavaRuntime {
+    private static final long PROBE_TIMEOUT = 10;
+    private final File executable;
+    private final String version, vendor, arch;
+    private final int majorVersion;
+    private final boolean is64Bit, zgc, shenandoah, cds;
+
+    /**
+     * Creates a runtime description
+     * @param executable The java executable
+     * @param version The full version (java.version)
+     * @param vendor The vendor (java.vendor)
+     * @param arch The architecture (os.arch)
+     * @param is64Bit If the runtime is a 64 bit runtime
+     * @param zgc If the runtime supports ZGC
+     * @param shenandoah If the runtime supports Shenandoah
+     * @param cds If the runtime ships a class data sharing archive
+     */
+    public JavaRuntime(File executable, String version, String vendor, String arch, boolean is64Bit, boolean zgc,
+                       boolean shenandoah, boolean cds) {
+        this.executable = executable;
+        this.version = version;
+        this.vendor = vendor;
+        this.arch = arch;
+        this.is64Bit = is64Bit;
+        this.zgc = zgc;
+        this.shenandoah = shenandoah;
+        this.cds = cds;
+        majorVersion = parseMajorVersion(version);
+    }
+
+    /**
+     * Runs a java executable to find out its version, architecture and the collectors and sharing it supports
+     * @param executable The java executable
+     * @param console The console to report to
+     * @return The runtime or null if the executable could not be run
+     */
+    public static JavaRuntime probe(File executable, Console console) {
+        List<String> output = run(executable, "-XshowSettings:properties", "-version");
+        if (output == null) {
+            console.print("Failed to probe Java runtime " + executable);
+            return null;
+        }
+        String version = null, vendor = null, arch = null, model = null;
+        for (String line : output) {
+            int split = line.indexOf(" = ");
+            if (split == -1) {
+                continue;
+            }
+            String key = line.substring(0, split).trim();
+            String value = line.substring(split + 3).trim();
+            switch (key) {
+                case "java.version":
+                    version = value;
+                    break;
+                case "java.vendor":
+                    vendor = value;
+                    break;
+                case "os.arch":
+                    arch = value;
+                    break;
+                case "sun.arch.data.model":
+                    model = value;
+                    break;
+            }
+        }
+        if (version == null) {
+            console.print("Java runtime " + executable + " did not report its version.");
+            return null;
+        }
+        boolean is64Bit = model != null ? "64".equals(model) : arch != null && arch.contains("64");
+        //Both collectors are production ready since Java 15 and may be left out of a build
+        boolean modern = parseMajorVersion(version) >= 15;
+        boolean zgc = modern && run(executable, "-XX:+UseZGC", "-version") != null;
+        boolean shenandoah = modern && run(executable, "-XX:+UseShenandoahGC", "-version") != null;
+        boolean cds = run(executable, "-Xshare:on", "-version") != null;
+        return new JavaRuntime(executable, version, vendor, arch, is64Bit, zgc, shenandoah, cds);
+    }
+
+    /**
+     * Reads a runtime stored by toJSON
+     * @param o The stored runtime
+     * @return The runtime
+     */
+    public static JavaRuntime fromJSON(JSONObject o) {
+        return new JavaRuntime(new File(o.getString("path")), o.getString("version"), o.optString("vendor", null),
+                o.optString("arch", null), o.getBoolean("is64Bit"), o.getBoolean("zgc"), o.getBoolean("shenandoah"),
+                o.getBoolean("cds"));
+    }
+
+    /**
+     * Converts the runtime to JSON so it does not need to be probed again
+     * @return The JSON representation
+     */
+    public final JSONObject toJSON() {
+        JSONObject o = new JSONObject();
+        o.put("path", executable.getAbsolutePath());
+        o.put("version", version);
+        o.put("vendor", vendor);
+        o.put("arch", arch);
+        o.put("is64Bit", is64Bit);
+        o.put("zgc", zgc);
+        o.put("shenandoah", shenandoah);
+        o.put("cds", cds);
+        return o;
+    }
+
+    /**
+     * Runs the executable and collects its output
+     * @param executable The java executable
+     * @param args The arguments
+     * @return The output lines or null if the process failed
+     */
+    private static List<String> run(File executable, String... args) {
+        List<String> command = new ArrayList<>();
+        //javaw has no console to report to
+        File console = new File(executable.getParentFile(), "java.exe");
+        if ("javaw.exe".equalsIgnoreCase(executable.getName()) && console.isFile()) {
+            command.add(console.getAbsolutePath());
+        } else {
+            command.add(executable.getAbsolutePath());
+        }
+        command.addAll(Arrays.asList(args));
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        List<String> lines = new ArrayList<>();
+        try {
+            Process p = pb.start();
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    lines.add(line);
+                }
+            }
+            if (!p.waitFor(PROBE_TIMEOUT, TimeUnit.SECONDS)) {
+                p.destroy();
+                return null;
+            }
+            return p.exitValue() == 0 ? lines : null;
+        } catch (IOException ex) {
+            return null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Extracts the feature release from a version string
+     * @param version The version string (1.8.0_202, 17.0.9...)
+     * @return The major version or 0 if it could not be parsed
+     */
+    public static int parseMajorVersion(String version) {
+        if (version == null) {
+            return 0;
+        }
+        String v = version.startsWith("1.") ? version.substring(2) : version;
+        int end = 0;
+        while (end < v.length() && Character.isDigit(v.charAt(end))) {
+            end++;
+        }
+        return end == 0 ? 0 : Integer.parseInt(v.substring(0, end));
+    }
+
+    public final File getExecutable() {
+        return executable;
+    }
+
+    public final String getVersion() {
+        return version;
+    }
+
+    public final int getMajorVersion() {
+        return majorVersion;
+    }
+
+    public final String getVendor() {
+        return vendor;
+    }
+
+    public final String getArch() {
+        return arch;
+    }
+
+    public final boolean is64Bit() {
+        return is64Bit;
+    }
+
+    public final boolean supportsZGC() {
+        return zgc;
+    }
+
+    public final boolean supportsShenandoah() {
+        return shenandoah;
+    }
+
+    public final boolean supportsCDS() {
+        return cds;
+    }
+
+    @Override
+    public final String toString() {
+        return version + " (" + (vendor != null ? vendor : "Unknown") + ", " + (is64Bit ? "64" : "32") + " bit) " + executable;
+    }
+}
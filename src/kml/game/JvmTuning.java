@@ -0,0 +1,149 @@
+package kml.game;
+
+import kml.OSArch;
+import kml.game.profile.JvmPreset;
+import kml.utils.Utils;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public final class JvmTuning {
+    private static final long MB = 1024 * 1024;
+    //First release with -XX:+AutoCreateSharedArchive, older runtimes refuse to start with the option
+    private static final int AUTO_ARCHIVE_VERSION = 19;
+
+    private JvmTuning() {
+    }
+
+    /**
+     * Builds the JVM arguments of a preset sizing the heap from the physical memory and the needs of the version
+     * @param preset The preset of the profile
+     * @param runtime The runtime that will run the game or null if it is unknown
+     * @param javaVersion The Java version the game version requires
+     * @return The JVM arguments
+     */
+    public static List<String> getArguments(JvmPreset preset, JavaRuntime runtime, int javaVersion) {
+        List<String> args = new ArrayList<>();
+        boolean is64Bit = runtime != null ? runtime.is64Bit() : Utils.getOSArch() != OSArch.OLD;
+        if (preset == JvmPreset.CLASSIC) {
+            if (!is64Bit) {
+                args.add("-Xmx1G");
+                args.add("-Xss1M");
+            } else {
+                args.add("-Xmx2G");
+            }
+            args.add("-Xmn128M");
+            return args;
+        }
+        long heap = getHeap(preset, javaVersion, is64Bit);
+        args.add("-Xmx" + heap + 'M');
+        if (preset == JvmPreset.PERFORMANCE) {
+            args.add("-Xms" + heap + 'M');
+        }
+        if (!is64Bit) {
+            args.add("-Xss1M");
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        //Large heaps on machines with spare cores benefit from a concurrent collector
+        boolean concurrent = preset != JvmPreset.LOW_MEMORY && heap >= 4096 && cores >= 4 && runtime != null;
+        if (concurrent && runtime.supportsZGC()) {
+            args.add("-XX:+UseZGC");
+            int major = runtime.getMajorVersion();
+            if (major >= 21 && major < 23) {
+                args.add("-XX:+ZGenerational");
+            }
+        } else if (concurrent && runtime.supportsShenandoah()) {
+            args.add("-XX:+UseShenandoahGC");
+        } else {
+            args.add("-XX:+UnlockExperimentalVMOptions");
+            args.add("-XX:+UseG1GC");
+            args.add("-XX:G1NewSizePercent=20");
+            args.add("-XX:G1ReservePercent=20");
+            args.add("-XX:MaxGCPauseMillis=50");
+            args.add("-XX:G1HeapRegionSize=" + (heap >= 4096 ? 16 : 8) + 'M');
+        }
+        //Leave a core to the render thread
+        int parallel = cores <= 2 ? cores : Math.min(cores - 1, 8 + (cores - 8) * 5 / 8);
+        args.add("-XX:ParallelGCThreads=" + Math.max(1, parallel));
+        args.add("-XX:ConcGCThreads=" + Math.max(1, parallel / 4));
+        return args;
+    }
+
+    /**
+     * Builds the arguments that make a runtime dump the loaded classes of the game on the first exit and map
+     * them on later starts
+     * @param runtime The runtime that will run the game
+     * @param archive The archive file
+     * @return The arguments or an empty list if the runtime cannot create the archive on its own
+     */
+    public static List<String> getSharingArguments(JavaRuntime runtime, File archive) {
+        if (!runtime.supportsCDS() || runtime.getMajorVersion() < AUTO_ARCHIVE_VERSION) {
+            return Collections.emptyList();
+        }
+        List<String> args = new ArrayList<>();
+        args.add("-XX:+AutoCreateSharedArchive");
+        args.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+        return args;
+    }
+
+    /**
+     * Computes the maximum heap of a preset
+     * @param preset The preset
+     * @param javaVersion The Java version the game version requires
+     * @param is64Bit If the runtime is a 64 bit runtime
+     * @return The heap size in megabytes
+     */
+    private static long getHeap(JvmPreset preset, int javaVersion, boolean is64Bit) {
+        //Versions requiring Java 17 or newer load far more data than older ones
+        boolean modern = javaVersion >= 17;
+        long min, max, share;
+        long physical = getPhysicalMemory() / MB;
+        switch (preset) {
+            case LOW_MEMORY:
+                min = modern ? 1024 : 512;
+                max = modern ? 2048 : 1024;
+                share = physical / 8;
+                break;
+            case PERFORMANCE:
+                min = modern ? 3072 : 2048;
+                max = 8192;
+                share = physical / 2;
+                break;
+            default:
+                min = modern ? 2048 : 1024;
+                max = modern ? 6144 : 4096;
+                share = physical / 4;
+                break;
+        }
+        long heap = physical > 0 ? Math.max(min, Math.min(max, share)) : min;
+        if (physical > 0) {
+            //Keep at least a gigabyte for the system and the native memory of the game
+            heap = Math.min(heap, Math.max(512, physical - 1024));
+        }
+        if (!is64Bit) {
+            heap = Math.min(heap, 1024);
+        }
+        return heap / 256 * 256;
+    }
+
+    /**
+     * Gets the physical memory of the machine
+     * @return The memory in bytes or -1 if it is unknown
+     */
+    public static long getPhysicalMemory() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize();
+        }
+        return -1;
+    }
+}
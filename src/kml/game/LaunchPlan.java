@@ -0,0 +1,260 @@
+package kml.game;
+
+import kml.Console;
+import kml.Kernel;
+import kml.auth.user.User;
+import kml.auth.user.UserType;
+import kml.game.download.VirtualAssets;
+import kml.game.profile.Profile;
+import kml.utils.Utils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class LaunchPlan {
+    private static final File PLANS_ROOT = new File(Kernel.APPLICATION_CACHE, "launch");
+    private static final int PLAN_FORMAT = 1;
+    private final String key;
+    private final Map<String, String> inputs;
+    private final List<String> jvmArgs, gameArgs, classpath;
+    private final File nativesDir, assetsDir, gameDir;
+    private final boolean virtualAssets;
+
+    /**
+     * Creates a launch plan. User dependent arguments are kept as placeholders so they are never persisted.
+     * @param key The hash of the profile, platform and user type the plan was built for
+     * @param inputs The version JSON files the plan was built from and their SHA-1
+     * @param jvmArgs The command up to the main class
+     * @param gameArgs The game arguments template
+     * @param classpath The classpath entries
+     * @param nativesDir The natives folder
+     * @param assetsDir The assets folder
+     * @param gameDir The game folder
+     * @param virtualAssets If the assets folder is a virtual asset folder
+     */
+    public LaunchPlan(String key, Map<String, String> inputs, List<String> jvmArgs, List<String> gameArgs,
+                      List<String> classpath, File nativesDir, File assetsDir, File gameDir, boolean virtualAssets) {
+        this.key = key;
+        this.inputs = inputs;
+        this.jvmArgs = jvmArgs;
+        this.gameArgs = gameArgs;
+        this.classpath = classpath;
+        this.nativesDir = nativesDir;
+        this.assetsDir = assetsDir;
+        this.gameDir = gameDir;
+        this.virtualAssets = virtualAssets;
+    }
+
+    /**
+     * Computes the key of a plan from every setting that changes the command besides the version files
+     * @param p The profile
+     * @param versionID The resolved version id
+     * @param type The type of the selected user
+     * @param runtimes The fingerprint of the installed runtimes, used when the profile does not set its runtime
+     * @return The key
+     */
+    public static String getKey(Profile p, String versionID, UserType type, String runtimes) {
+        JSONObject o = new JSONObject();
+        o.put("format", PLAN_FORMAT);
+        o.put("launcher", Kernel.KERNEL_BUILD_NAME);
+        o.put("launcherPath", String.valueOf(LaunchPlan.class.getProtectionDomain().getCodeSource().getLocation()));
+        o.put("workingDir", Kernel.APPLICATION_WORKING_DIR.getAbsolutePath());
+        o.put("os", System.getProperty("os.name") + ' ' + System.getProperty("os.arch"));
+        o.put("arch", Utils.getOSArch().name());
+        o.put("version", versionID);
+        o.put("userType", type.name());
+        o.put("java", p.hasJavaDir() ? p.getJavaDir().getAbsolutePath() : runtimes);
+        o.put("javaArgs", p.hasJavaArgs() ? p.getJavaArgs() : "");
+        o.put("jvmPreset", p.getJvmPreset().name());
+        //Presets are sized from the hardware
+        o.put("memory", JvmTuning.getPhysicalMemory());
+        o.put("cores", Runtime.getRuntime().availableProcessors());
+        o.put("gameDir", p.hasGameDir() ? p.getGameDir().getAbsolutePath() : "");
+        o.put("resolution", p.hasResolution() ? p.getResolutionWidth() + "x" + p.getResolutionHeight() : "");
+        return hash(o.toString());
+    }
+
+    /**
+     * Collects the version JSON files a version is built from
+     * @param versionID The version id
+     * @return The files relative to the working directory and their SHA-1 or null if a file is missing
+     */
+    public static Map<String, String> getInputs(String versionID) {
+        Map<String, String> inputs = new TreeMap<>();
+        String id = versionID;
+        while (id != null) {
+            String path = "versions/" + id + '/' + id + ".json";
+            if (inputs.containsKey(path)) {
+                break;
+            }
+            File json = new File(Kernel.APPLICATION_WORKING_DIR, path);
+            String sha1 = Utils.calculateChecksum(json, "SHA-1");
+            if (sha1 == null) {
+                return null;
+            }
+            inputs.put(path, sha1);
+            try {
+                JSONObject version = new JSONObject(new String(Files.readAllBytes(json.toPath()), StandardCharsets.UTF_8));
+                id = version.has("inheritsFrom") ? version.getString("inheritsFrom") : null;
+            } catch (IOException | JSONException ex) {
+                return null;
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * Loads the plan of a profile if it is still valid
+     * @param p The profile
+     * @param key The current key of the profile
+     * @param console The console to report to
+     * @return The plan or null if there is no valid plan
+     */
+    public static LaunchPlan load(Profile p, String key, Console console) {
+        File file = getFile(p);
+        if (!file.isFile()) {
+            return null;
+        }
+        LaunchPlan plan;
+        try {
+            JSONObject o = new JSONObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            if (o.getInt("format") != PLAN_FORMAT || !key.equals(o.getString("key"))) {
+                return null;
+            }
+            Map<String, String> inputs = new TreeMap<>();
+            JSONObject in = o.getJSONObject("inputs");
+            for (String path : in.keySet()) {
+                inputs.put(path, in.getString(path));
+            }
+            plan = new LaunchPlan(key, inputs, toList(o.getJSONArray("jvmArgs")), toList(o.getJSONArray("gameArgs")),
+                    toList(o.getJSONArray("classpath")), new File(o.getString("nativesDir")),
+                    new File(o.getString("assetsDir")), new File(o.getString("gameDir")), o.getBoolean("virtualAssets"));
+        } catch (IOException | JSONException ex) {
+            console.print("Failed to read launch plan.");
+            ex.printStackTrace(console.getWriter());
+            return null;
+        }
+        return plan.isValid() ? plan : null;
+    }
+
+    /**
+     * Checks that the files the plan was built from did not change and the files it uses still exist
+     * @return A boolean with the result
+     */
+    private boolean isValid() {
+        for (Map.Entry<String, String> e : inputs.entrySet()) {
+            if (!e.getValue().equals(Utils.calculateChecksum(new File(Kernel.APPLICATION_WORKING_DIR, e.getKey()), "SHA-1"))) {
+                return false;
+            }
+        }
+        if (!new File(jvmArgs.get(0)).isFile()) {
+            return false;
+        }
+        for (String entry : classpath) {
+            if (!new File(entry).isFile()) {
+                return false;
+            }
+        }
+        if (!NativesCache.isComplete(nativesDir)) {
+            return false;
+        }
+        return !virtualAssets || VirtualAssets.isComplete(assetsDir);
+    }
+
+    /**
+     * Checks if the plan only uses files that are kept after the game exits
+     * @return A boolean with the result
+     */
+    public final boolean isCacheable() {
+        return inputs != null && NativesCache.isComplete(nativesDir) && (!virtualAssets || VirtualAssets.isComplete(assetsDir));
+    }
+
+    /**
+     * Writes the plan so later launches of the same profile can skip building it
+     * @param p The profile
+     * @param console The console to report to
+     */
+    public final void save(Profile p, Console console) {
+        JSONObject o = new JSONObject();
+        o.put("format", PLAN_FORMAT);
+        o.put("key", key);
+        o.put("inputs", new JSONObject(inputs));
+        o.put("jvmArgs", new JSONArray(jvmArgs));
+        o.put("gameArgs", new JSONArray(gameArgs));
+        o.put("classpath", new JSONArray(classpath));
+        o.put("nativesDir", nativesDir.getAbsolutePath());
+        o.put("assetsDir", assetsDir.getAbsolutePath());
+        o.put("gameDir", gameDir.getAbsolutePath());
+        o.put("virtualAssets", virtualAssets);
+        PLANS_ROOT.mkdirs();
+        if (!Utils.writeToFile(o.toString(), getFile(p))) {
+            console.print("Failed to save launch plan.");
+        }
+    }
+
+    /**
+     * Builds the command of the plan for a user
+     * @param u The user that is launching the game
+     * @return The full command
+     */
+    public final List<String> getCommand(User u) {
+        List<String> command = new ArrayList<>(jvmArgs);
+        for (String arg : gameArgs) {
+            switch (arg) {
+                case "${auth_player_name}":
+                    command.add(u.getDisplayName());
+                    break;
+                case "${auth_uuid}":
+                    command.add(u.getSelectedProfile());
+                    break;
+                case "${auth_access_token}":
+                    command.add(u.getAccessToken());
+                    break;
+                case "${auth_session}":
+                    command.add("token:" + u.getAccessToken() + ':' + u.getSelectedProfile().replace("-", ""));
+                    break;
+                default:
+                    command.add(arg);
+                    break;
+            }
+        }
+        return command;
+    }
+
+    public final File getNativesDir() {
+        return nativesDir;
+    }
+
+    public final File getGameDir() {
+        return gameDir;
+    }
+
+    private static File getFile(Profile p) {
+        return new File(PLANS_ROOT, hash(p.getID()) + ".json");
+    }
+
+    private static List<String> toList(JSONArray array) {
+        List<String> list = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            list.add(array.getString(i));
+        }
+        return list;
+    }
+
+    private static String hash(String text) {
+        MessageDigest digest = Utils.getDigest("SHA-1");
+        return Utils.toHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,228 @@
+package kml.game;
+
+import kml.Console;
+import kml.Kernel;
+import kml.game.download.Downloadable;
+import kml.game.version.library.Library;
+import kml.utils.Utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class NativesCache {
+    public static final File NATIVES_ROOT = new File(Kernel.APPLICATION_CACHE, "natives");
+    private static final String MARKER = "OK";
+    private static final String TEMPORARY = ".tmp";
+    private static final String LOCK = "launcher.lock";
+    //Natives folders without a lock are considered in use until they reach this age
+    private static final long UNLOCKED_AGE = TimeUnit.DAYS.toMillis(1);
+    //Locks of the temporary folders used by the games of this launcher
+    private static final Map<String, FileChannel> LOCKS = new ConcurrentHashMap<>();
+    private final Console console;
+
+    public NativesCache(Console c) {
+        console = c;
+    }
+
+    /**
+     * Returns a folder with the extracted natives. Folders are named by the hash of the native jars and their
+     * exclusions so natives are only extracted again when a jar changes.
+     * @param libs The native libraries
+     * @return The natives folder
+     */
+    public final File prepare(List<Library> libs) {
+        String key = getKey(libs);
+        File dir = new File(NATIVES_ROOT, key == null ? "natives" : key);
+        if (key != null && new File(dir, MARKER).isFile()) {
+            console.print("Reusing extracted natives.");
+            return dir;
+        }
+        //Leftovers of launches that did not exit cleanly
+        File[] old = NATIVES_ROOT.listFiles();
+        if (old != null) {
+            for (File f : old) {
+                if (isTemporary(f) && !isInUse(f)) {
+                    Utils.deleteDirectory(f);
+                }
+            }
+        }
+        console.print("Extracting natives.");
+        File temp = new File(NATIVES_ROOT, dir.getName() + '-' + System.nanoTime() + TEMPORARY);
+        temp.mkdirs();
+        lock(temp);
+        boolean complete = true;
+        for (Library lib : libs) {
+            File completePath = new File(Kernel.APPLICATION_WORKING_DIR + File.separator + lib.getRelativeNativePath());
+            try (InputStream input = new FileInputStream(completePath)) {
+                Utils.decompressZIP(input, temp, lib.getExtractExclusions());
+            } catch (IOException ex) {
+                console.print("Failed to extract native: " + lib.getName());
+                ex.printStackTrace(console.getWriter());
+                complete = false;
+            }
+        }
+        if (key == null || !complete) {
+            //Incomplete extractions are only used by this launch
+            return temp;
+        }
+        //Cached natives are shared, only temporary folders keep the lock
+        unlock(temp);
+        try {
+            new File(temp, MARKER).createNewFile();
+            Files.move(temp.toPath(), dir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return dir;
+        } catch (IOException ex) {
+            //Another launcher may have published the same natives
+            if (new File(dir, MARKER).isFile()) {
+                Utils.deleteDirectory(temp);
+                return dir;
+            }
+            console.print("Failed to cache extracted natives.");
+            ex.printStackTrace(console.getWriter());
+            new File(temp, MARKER).delete();
+            lock(temp);
+            return temp;
+        }
+    }
+
+    /**
+     * Checks if a natives folder may be used by a running game of any launcher. Temporary folders are locked
+     * while their game runs, folders without a lock are only considered unused once they are old enough.
+     * @param dir The natives folder
+     * @return A boolean with the result
+     */
+    public static boolean isInUse(File dir) {
+        if (LOCKS.containsKey(dir.getAbsolutePath())) {
+            return true;
+        }
+        File lock = new File(dir, LOCK);
+        if (!lock.isFile()) {
+            return System.currentTimeMillis() - dir.lastModified() < UNLOCKED_AGE;
+        }
+        try (FileChannel channel = FileChannel.open(lock.toPath(), StandardOpenOption.WRITE)) {
+            FileLock l = channel.tryLock();
+            if (l == null) {
+                return true;
+            }
+            l.release();
+            return false;
+        } catch (IOException | OverlappingFileLockException ex) {
+            return true;
+        }
+    }
+
+    /**
+     * Locks a temporary folder while its game runs so other launchers do not delete it
+     * @param dir The temporary folder
+     */
+    private void lock(File dir) {
+        try {
+            FileChannel channel = FileChannel.open(new File(dir, LOCK).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (channel.tryLock() == null) {
+                channel.close();
+                return;
+            }
+            LOCKS.put(dir.getAbsolutePath(), channel);
+        } catch (IOException ex) {
+            console.print("Failed to lock natives dir " + dir.getName());
+            ex.printStackTrace(console.getWriter());
+        }
+    }
+
+    /**
+     * Releases the lock of a temporary folder and deletes the lock file
+     * @param dir The temporary folder
+     */
+    private void unlock(File dir) {
+        FileChannel channel = LOCKS.remove(dir.getAbsolutePath());
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                ex.printStackTrace(console.getWriter());
+            }
+        }
+        new File(dir, LOCK).delete();
+    }
+
+    /**
+     * Checks if a folder holds natives that have been completely extracted and are kept across launches
+     * @param dir The natives folder
+     * @return A boolean with the result
+     */
+    public static boolean isComplete(File dir) {
+        return !isTemporary(dir) && new File(dir, MARKER).isFile();
+    }
+
+    /**
+     * Checks if a folder holds natives that are only used by the launch that extracted them
+     * @param dir The natives folder
+     * @return A boolean with the result
+     */
+    public static boolean isTemporary(File dir) {
+        return dir.getName().endsWith(TEMPORARY);
+    }
+
+    /**
+     * Releases a natives folder after the game has exited, only folders that were not cached are deleted
+     * @param dir The natives folder returned by prepare
+     */
+    public final void release(File dir) {
+        if (isTemporary(dir)) {
+            console.print("Deleting natives dir.");
+            unlock(dir);
+            Utils.deleteDirectory(dir);
+        }
+    }
+
+    /**
+     * Computes the cache key of a set of native libraries, it names the folder prepare extracts them to
+     * @param libs The native libraries
+     * @return The key or null if a native jar could not be hashed
+     */
+    public static String getKey(List<Library> libs) {
+        MessageDigest digest = Utils.getDigest("SHA-1");
+        for (Library lib : libs) {
+            String hash = null;
+            if (lib.hasClassifierDownload()) {
+                Downloadable d = lib.getClassifierDownload();
+                hash = d.getHash();
+            }
+            if (hash == null) {
+                hash = Utils.calculateChecksum(new File(Kernel.APPLICATION_WORKING_DIR + File.separator + lib.getRelativeNativePath()), "SHA-1");
+                if (hash == null) {
+                    return null;
+                }
+            }
+            digest.update(hash.toLowerCase(Locale.ENGLISH).getBytes(StandardCharsets.UTF_8));
+            if (lib.getExtractExclusions() != null) {
+                for (String e : lib.getExtractExclusions()) {
+                    digest.update((byte) 0);
+                    digest.update(e.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            digest.update((byte) '\n');
+        }
+        return Utils.toHex(digest.digest());
+    }
+}
@@ -0,0 +1,43 @@
+package kml.game;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class ProcessStats {
+    private final double cpu;
+    private final long rss;
+    private final int threads;
+    private final long uptime;
+
+    /**
+     * Creates a sample of the resources used by the game process
+     * @param cpu The CPU usage since the previous sample, 100 means one full core
+     * @param rss The resident memory in bytes
+     * @param threads The thread count
+     * @param uptime The time the process has been running in milliseconds
+     */
+    public ProcessStats(double cpu, long rss, int threads, long uptime) {
+        this.cpu = cpu;
+        this.rss = rss;
+        this.threads = threads;
+        this.uptime = uptime;
+    }
+
+    public final double getCPU() {
+        return cpu;
+    }
+
+    public final long getRSS() {
+        return rss;
+    }
+
+    public final int getThreads() {
+        return threads;
+    }
+
+    public final long getUptime() {
+        return uptime;
+    }
+}
@@ -0,0 +1,209 @@
+package kml.game;
+
+import kml.Console;
+import kml.Kernel;
+import kml.OS;
+import kml.utils.Utils;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class ProcessSupervisor {
+    private static final File SESSIONS_ROOT = new File(Kernel.APPLICATION_LOGS, "sessions");
+    private static final long SAMPLE_INTERVAL = 1000;
+    //USER_HZ is 100 on every mainstream Linux build
+    private static final double CLOCK_TICKS = 100.0;
+    private final Process process;
+    private final Console console;
+    private final String version, profile;
+    private final List<String> command;
+    private final long start;
+    private final long pid;
+    private volatile ProcessStats stats;
+    private long lastTicks = -1, lastSample;
+    private long peakRSS;
+    private int peakThreads;
+    private double cpuTotal;
+    private int samples;
+
+    /**
+     * Creates a supervisor for a game process that has just been started
+     * @param p The game process
+     * @param version The version being played
+     * @param profile The id of the profile being played
+     * @param command The command the process was started with
+     * @param c The console to report to
+     */
+    public ProcessSupervisor(Process p, String version, String profile, List<String> command, Console c) {
+        process = p;
+        this.version = version;
+        this.profile = profile;
+        this.command = command;
+        console = c;
+        start = System.currentTimeMillis();
+        pid = Utils.getPlatform() == OS.LINUX ? getPID(p) : -1;
+    }
+
+    /**
+     * Starts supervising the process. A thread blocks until the process exits while the resources are
+     * sampled once per second.
+     * @param listener The listener to be notified
+     */
+    public final void start(final GameListener listener) {
+        final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Game-sampler");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        if (pid != -1) {
+            sampler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    ProcessStats s = sample();
+                    if (s != null) {
+                        stats = s;
+                        listener.statsChanged(s);
+                    }
+                }
+            }, 0, SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+        } else {
+            console.print("Game resource usage is not available on this platform.");
+        }
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int exitCode;
+                while (true) {
+                    try {
+                        exitCode = process.waitFor();
+                        break;
+                    } catch (InterruptedException ex) {
+                        //The process outlives the launcher threads, keep waiting
+                    }
+                }
+                sampler.shutdownNow();
+                try {
+                    sampler.awaitTermination(SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ignored) {
+                }
+                saveSummary(exitCode);
+                listener.gameExited(exitCode);
+            }
+        }, "Game-supervisor");
+        waiter.setDaemon(true);
+        waiter.start();
+    }
+
+    /**
+     * Returns the latest resource sample of the game
+     * @return The sample or null if none has been taken
+     */
+    public final ProcessStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Reads the CPU time, resident memory and threads of the process from /proc
+     * @return The sample or null if the process is gone
+     */
+    private ProcessStats sample() {
+        try {
+            String stat = new String(Files.readAllBytes(new File("/proc/" + pid + "/stat").toPath()), StandardCharsets.US_ASCII);
+            //The process name may hold spaces, fields are counted after it starting at the state (field 3)
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split(" ");
+            long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+            int threads = Integer.parseInt(fields[17]);
+            long rss = 0;
+            for (String line : Files.readAllLines(new File("/proc/" + pid + "/status").toPath(), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmRSS:")) {
+                    rss = Long.parseLong(line.substring(6).replace("kB", "").trim()) * 1024;
+                    break;
+                }
+            }
+            long now = System.currentTimeMillis();
+            double cpu = 0;
+            if (lastTicks != -1 && now > lastSample) {
+                cpu = (ticks - lastTicks) / CLOCK_TICKS * 1000 / (now - lastSample) * 100;
+                cpuTotal += cpu;
+                samples++;
+            }
+            lastTicks = ticks;
+            lastSample = now;
+            peakRSS = Math.max(peakRSS, rss);
+            peakThreads = Math.max(peakThreads, threads);
+            return new ProcessStats(cpu, rss, threads, now - start);
+        } catch (IOException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the summary of the session so heap settings can be compared with the memory actually used
+     * @param exitCode The exit code of the process
+     */
+    private void saveSummary(int exitCode) {
+        long runtime = System.currentTimeMillis() - start;
+        JSONObject summary = new JSONObject();
+        summary.put("version", version);
+        summary.put("profile", profile);
+        summary.put("exitCode", exitCode);
+        summary.put("start", start);
+        summary.put("runtime", runtime);
+        String xmx = "";
+        for (String arg : command) {
+            if (arg.startsWith("-Xmx")) {
+                xmx = arg.substring(4);
+            }
+        }
+        summary.put("xmx", xmx);
+        if (pid != -1) {
+            summary.put("peakRSS", peakRSS);
+            summary.put("peakThreads", peakThreads);
+            summary.put("averageCPU", samples > 0 ? cpuTotal / samples : 0);
+        }
+        console.print("Game session lasted " + runtime / 1000 + " seconds with exit code " + exitCode
+                + (pid != -1 ? ". Peak memory " + Utils.formatBytes(peakRSS) : ""));
+        SESSIONS_ROOT.mkdirs();
+        if (!Utils.writeToFile(summary.toString(), new File(SESSIONS_ROOT, "session-" + start + ".json"))) {
+            console.print("Failed to save game session summary.");
+        }
+    }
+
+    /**
+     * Gets the id of a process. Process.pid exists since Java 9, older runtimes keep it in a private field.
+     * @param p The process
+     * @return The id or -1 if it could not be obtained
+     */
+    private static long getPID(Process p) {
+        try {
+            Method m = Process.class.getMethod("pid");
+            return (Long) m.invoke(p);
+        } catch (Exception ex) {
+            try {
+                Field f = p.getClass().getDeclaredField("pid");
+                f.setAccessible(true);
+                return f.getLong(p);
+            } catch (Exception ex2) {
+                return -1;
+            }
+        }
+    }
+}
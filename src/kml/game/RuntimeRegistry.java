@@ -0,0 +1,323 @@
+package kml.game;
+
+import kml.Console;
+import kml.Kernel;
+import kml.OS;
+import kml.OSArch;
+import kml.utils.Utils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class RuntimeRegistry {
+    private static final File CACHE_FILE = new File(Kernel.APPLICATION_CACHE, "runtimes.json");
+    private static final int CACHE_FORMAT = 1;
+    private final Console console;
+    private final Map<String, Entry> entries = new TreeMap<>();
+    private boolean loaded;
+
+    public RuntimeRegistry(Kernel k) {
+        console = k.getConsole();
+    }
+
+    /**
+     * Finds the installed runtimes probing only the ones that are new or changed since the last scan
+     * @return The usable runtimes
+     */
+    public final synchronized List<JavaRuntime> scan() {
+        if (!loaded) {
+            load();
+            loaded = true;
+        }
+        Set<String> found = new TreeSet<>();
+        for (File exe : findExecutables()) {
+            found.add(exe.getAbsolutePath());
+        }
+        boolean changed = false;
+        Iterator<String> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            //Runtimes probed outside the standard locations are kept while they exist
+            if (!new File(it.next()).isFile()) {
+                it.remove();
+                changed = true;
+            }
+        }
+        for (String path : found) {
+            File exe = new File(path);
+            Entry e = entries.get(path);
+            if (e != null && e.modified == exe.lastModified() && e.size == exe.length()) {
+                continue;
+            }
+            console.print("Probing Java runtime " + path);
+            entries.put(path, new Entry(exe.lastModified(), exe.length(), JavaRuntime.probe(exe, console)));
+            changed = true;
+        }
+        if (changed) {
+            save();
+        }
+        return getKnown();
+    }
+
+    /**
+     * Returns the runtimes found by the last scan without looking for new ones or probing any executable
+     * @return The known runtimes
+     */
+    public final synchronized List<JavaRuntime> getKnown() {
+        if (!loaded) {
+            load();
+            loaded = true;
+        }
+        List<JavaRuntime> runtimes = new ArrayList<>();
+        for (Entry e : entries.values()) {
+            if (e.runtime != null) {
+                runtimes.add(e.runtime);
+            }
+        }
+        return runtimes;
+    }
+
+    /**
+     * Gets the description of a runtime probing it only if it is not known
+     * @param executable The java executable
+     * @return The runtime or null if it could not be probed
+     */
+    public final synchronized JavaRuntime get(File executable) {
+        if (!loaded) {
+            load();
+            loaded = true;
+        }
+        File exe = canonical(executable);
+        Entry e = entries.get(exe.getAbsolutePath());
+        if (e == null || e.modified != exe.lastModified() || e.size != exe.length()) {
+            e = new Entry(exe.lastModified(), exe.length(), JavaRuntime.probe(exe, console));
+            entries.put(exe.getAbsolutePath(), e);
+            save();
+        }
+        return e.runtime;
+    }
+
+    /**
+     * Selects the fastest runtime that can run a version. Versions requiring Java 8 keep Java 8 when it is
+     * installed because old versions and mods break on newer runtimes, other versions take the newest
+     * runtime that meets their requirement.
+     * @param required The Java version the game version requires
+     * @return The runtime or null if no compatible runtime is installed
+     */
+    public final JavaRuntime select(int required) {
+        boolean is64BitOS = Utils.getOSArch() != OSArch.OLD;
+        JavaRuntime best = null;
+        for (JavaRuntime r : scan()) {
+            if (r.getMajorVersion() < required) {
+                continue;
+            }
+            if (best == null || compare(r, best, required, is64BitOS) > 0) {
+                best = r;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Computes a hash of the launcher runtime and the runtimes recorded by the last scan so plans are rebuilt
+     * when they change. No executable is probed.
+     * @return The fingerprint
+     */
+    public final String getFingerprint() {
+        MessageDigest digest = Utils.getDigest("SHA-1");
+        digest.update(System.getProperty("java.home").getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+        for (JavaRuntime r : getKnown()) {
+            digest.update(r.getExecutable().getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(r.getVersion().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        return Utils.toHex(digest.digest());
+    }
+
+    private static int compare(JavaRuntime a, JavaRuntime b, int required, boolean is64BitOS) {
+        if (is64BitOS && a.is64Bit() != b.is64Bit()) {
+            return a.is64Bit() ? 1 : -1;
+        }
+        if (required <= 8) {
+            boolean aLegacy = a.getMajorVersion() == 8, bLegacy = b.getMajorVersion() == 8;
+            if (aLegacy != bLegacy) {
+                return aLegacy ? 1 : -1;
+            }
+        }
+        if (a.getMajorVersion() != b.getMajorVersion()) {
+            return Integer.compare(a.getMajorVersion(), b.getMajorVersion());
+        }
+        return compareUpdates(a.getVersion(), b.getVersion());
+    }
+
+    /**
+     * Compares the numbers of two version strings of the same major version
+     */
+    private static int compareUpdates(String a, String b) {
+        String[] pa = a.split("[^0-9]+"), pb = b.split("[^0-9]+");
+        for (int i = 0; i < Math.min(pa.length, pb.length); i++) {
+            if (pa[i].isEmpty() || pb[i].isEmpty()) {
+                continue;
+            }
+            try {
+                int c = Long.compare(Long.parseLong(pa[i]), Long.parseLong(pb[i]));
+                if (c != 0) {
+                    return c;
+                }
+            } catch (NumberFormatException ex) {
+                return 0;
+            }
+        }
+        return Integer.compare(pa.length, pb.length);
+    }
+
+    /**
+     * Lists the java executables of the standard install locations of the current platform
+     * @return The executables with links resolved
+     */
+    private List<File> findExecutables() {
+        List<File> homes = new ArrayList<>();
+        homes.add(new File(System.getProperty("java.home")));
+        String javaHome = System.getenv("JAVA_HOME");
+        if (javaHome != null && !javaHome.isEmpty()) {
+            homes.add(new File(javaHome));
+        }
+        List<File> roots = new ArrayList<>();
+        String userHome = System.getProperty("user.home");
+        switch (Utils.getPlatform()) {
+            case WINDOWS:
+                for (String env : new String[]{"ProgramFiles", "ProgramFiles(x86)", "ProgramW6432"}) {
+                    String dir = System.getenv(env);
+                    if (dir != null) {
+                        for (String vendor : new String[]{"Java", "Eclipse Adoptium", "Eclipse Foundation", "AdoptOpenJDK",
+                                "Zulu", "Microsoft", "BellSoft", "Amazon Corretto", "Semeru"}) {
+                            roots.add(new File(dir, vendor));
+                        }
+                    }
+                }
+                break;
+            case OSX:
+                roots.add(new File("/Library/Java/JavaVirtualMachines"));
+                roots.add(new File(userHome, "Library/Java/JavaVirtualMachines"));
+                break;
+            default:
+                roots.add(new File("/usr/lib/jvm"));
+                roots.add(new File("/usr/java"));
+                roots.add(new File("/opt/java"));
+                roots.add(new File("/opt/jdk"));
+                break;
+        }
+        roots.add(new File(userHome, ".jdks"));
+        roots.add(new File(userHome, ".sdkman" + File.separator + "candidates" + File.separator + "java"));
+        for (File root : roots) {
+            File[] dirs = root.listFiles();
+            if (dirs != null) {
+                for (File dir : dirs) {
+                    homes.add(dir);
+                    //macOS bundles
+                    homes.add(new File(dir, "Contents" + File.separator + "Home"));
+                }
+            }
+        }
+        Set<File> executables = new LinkedHashSet<>();
+        for (File home : homes) {
+            File exe = getExecutable(home);
+            if (exe != null) {
+                executables.add(canonical(exe));
+            }
+        }
+        return new ArrayList<>(executables);
+    }
+
+    private static File getExecutable(File home) {
+        File bin = new File(home, "bin");
+        if (Utils.getPlatform() == OS.WINDOWS) {
+            File javaw = new File(bin, "javaw.exe");
+            if (javaw.isFile()) {
+                return javaw;
+            }
+            File java = new File(bin, "java.exe");
+            return java.isFile() ? java : null;
+        }
+        File java = new File(bin, "java");
+        return java.isFile() ? java : null;
+    }
+
+    private static File canonical(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException ex) {
+            return file.getAbsoluteFile();
+        }
+    }
+
+    private void load() {
+        if (!CACHE_FILE.isFile()) {
+            return;
+        }
+        try {
+            JSONObject o = new JSONObject(new String(Files.readAllBytes(CACHE_FILE.toPath()), StandardCharsets.UTF_8));
+            if (o.optInt("format") != CACHE_FORMAT) {
+                return;
+            }
+            JSONArray list = o.getJSONArray("runtimes");
+            for (int i = 0; i < list.length(); i++) {
+                JSONObject r = list.getJSONObject(i);
+                JavaRuntime runtime = r.has("runtime") ? JavaRuntime.fromJSON(r.getJSONObject("runtime")) : null;
+                entries.put(r.getString("path"), new Entry(r.getLong("modified"), r.getLong("size"), runtime));
+            }
+        } catch (IOException | JSONException ex) {
+            console.print("Failed to load Java runtime cache.");
+            entries.clear();
+        }
+    }
+
+    private void save() {
+        JSONArray list = new JSONArray();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            JSONObject r = new JSONObject();
+            r.put("path", e.getKey());
+            r.put("modified", e.getValue().modified);
+            r.put("size", e.getValue().size);
+            //Executables that failed to run are kept so they are not probed on every launch
+            if (e.getValue().runtime != null) {
+                r.put("runtime", e.getValue().runtime.toJSON());
+            }
+            list.put(r);
+        }
+        JSONObject o = new JSONObject();
+        o.put("format", CACHE_FORMAT);
+        o.put("runtimes", list);
+        CACHE_FILE.getParentFile().mkdirs();
+        if (!Utils.writeToFile(o.toString(), CACHE_FILE)) {
+            console.print("Failed to save Java runtime cache.");
+        }
+    }
+
+    /**
+     * A probed executable and the state it had when it was probed
+     */
+    private static final class Entry {
+        private final long modified, size;
+        private final JavaRuntime runtime;
+
+        Entry(long modified, long size, JavaRuntime runtime) {
+            this.modified = modified;
+            this.size = size;
+            this.runtime = runtime;
+        }
+    }
+}
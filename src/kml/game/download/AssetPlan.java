@@ -0,0 +1,168 @@
+package kml.game.download;
+
+import kml.utils.Hashing;
+import kml.utils.Utils;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class AssetPlan {
+    public static final String RESOURCES_URL = "http://resources.download.minecraft.net/";
+    private static final int DIGEST_LENGTH = 20;
+    private byte[] digests;
+    private long[] sizes;
+    private String[] names;
+    private int[] table;
+    private int count;
+    private long totalSize;
+
+    public AssetPlan(int expected) {
+        int capacity = Math.max(16, expected);
+        digests = new byte[capacity * DIGEST_LENGTH];
+        sizes = new long[capacity];
+        names = new String[capacity];
+        table = new int[tableSizeFor(capacity)];
+    }
+
+    /**
+     * Adds an asset object to the plan unless an object with the same hash is already planned
+     * @param hash The SHA-1 of the object in hexadecimal
+     * @param size The size of the object
+     * @param name The name of the asset inside the index
+     * @return A boolean that indicates if the object has been added
+     * @throws IllegalArgumentException If the hash is not a valid SHA-1
+     */
+    public final boolean add(String hash, long size, String name) {
+        byte[] digest = Hashing.fromHex(hash);
+        if (digest == null || digest.length != DIGEST_LENGTH) {
+            throw new IllegalArgumentException("Invalid asset hash " + hash);
+        }
+        if (count == sizes.length) {
+            grow();
+        }
+        System.arraycopy(digest, 0, digests, count * DIGEST_LENGTH, DIGEST_LENGTH);
+        int mask = table.length - 1;
+        int slot = slotOf(count) & mask;
+        while (table[slot] != 0) {
+            if (sameDigest(table[slot] - 1, count)) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = count + 1;
+        sizes[count] = size;
+        names[count] = name;
+        totalSize += size;
+        count++;
+        return true;
+    }
+
+    /**
+     * Returns the amount of unique objects in the plan
+     * @return The object count
+     */
+    public final int size() {
+        return count;
+    }
+
+    /**
+     * Returns the sum of the sizes of every unique object
+     * @return The total size
+     */
+    public final long getTotalSize() {
+        return totalSize;
+    }
+
+    public final long getSize(int i) {
+        return sizes[i];
+    }
+
+    public final String getName(int i) {
+        return names[i];
+    }
+
+    /**
+     * Returns the SHA-1 of an object
+     * @param i The object position
+     * @return The SHA-1 in hexadecimal
+     */
+    public final String getHash(int i) {
+        int offset = i * DIGEST_LENGTH;
+        return Utils.toHex(Arrays.copyOfRange(digests, offset, offset + DIGEST_LENGTH));
+    }
+
+    /**
+     * Returns the path of an object relative to the working directory
+     * @param i The object position
+     * @return The relative path
+     */
+    public final File getRelativePath(int i) {
+        String hash = getHash(i);
+        return new File("assets" + File.separator + "objects" + File.separator + hash.substring(0, 2) + File.separator + hash);
+    }
+
+    /**
+     * Returns the download URL of an object
+     * @param i The object position
+     * @return The download URL
+     */
+    public final String getURL(int i) {
+        String hash = getHash(i);
+        return RESOURCES_URL + hash.substring(0, 2) + '/' + hash;
+    }
+
+    /**
+     * Builds the Downloadable of an object
+     * @param i The object position
+     * @return The Downloadable
+     */
+    public final Downloadable toDownloadable(int i) {
+        String hash = getHash(i);
+        File relPath = new File("assets" + File.separator + "objects" + File.separator + hash.substring(0, 2) + File.separator + hash);
+        return new Downloadable(RESOURCES_URL + hash.substring(0, 2) + '/' + hash, sizes[i], relPath, hash, names[i]);
+    }
+
+    private int slotOf(int i) {
+        //SHA-1 output is uniformly distributed so its leading bytes are already a good hash
+        int offset = i * DIGEST_LENGTH;
+        return (digests[offset] & 0xff) << 24 | (digests[offset + 1] & 0xff) << 16 | (digests[offset + 2] & 0xff) << 8 | (digests[offset + 3] & 0xff);
+    }
+
+    private boolean sameDigest(int a, int b) {
+        int offsetA = a * DIGEST_LENGTH;
+        int offsetB = b * DIGEST_LENGTH;
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            if (digests[offsetA + i] != digests[offsetB + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grow() {
+        int capacity = sizes.length * 2;
+        digests = Arrays.copyOf(digests, capacity * DIGEST_LENGTH);
+        sizes = Arrays.copyOf(sizes, capacity);
+        names = Arrays.copyOf(names, capacity);
+        table = new int[tableSizeFor(capacity)];
+        int mask = table.length - 1;
+        for (int i = 0; i < count; i++) {
+            int slot = slotOf(i) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    private static int tableSizeFor(int capacity) {
+        //Keep the load factor under 0.5
+        int size = Integer.highestOneBit(capacity) << 2;
+        return Math.max(size, 32);
+    }
+}
@@ -0,0 +1,90 @@
+package kml.game.download;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+class CircuitBreaker {
+    //Consecutive host failures that open the circuit
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long OPEN_TIME = TimeUnit.SECONDS.toMillis(15);
+    private static final long MAX_OPEN_TIME = TimeUnit.MINUTES.toMillis(5);
+    //Interval at which paused requests check again while the trial request is running
+    private static final long TRIAL_POLL = 1000;
+    private int failures;
+    private boolean open, trialRunning;
+    private long openUntil, openTime = OPEN_TIME;
+
+    /**
+     * Checks if a request can be sent to the host. Once the open time has passed a single trial request is let through.
+     * @return A boolean with the result
+     */
+    synchronized boolean allowRequest() {
+        if (!open) {
+            return true;
+        }
+        if (trialRunning || System.currentTimeMillis() < openUntil) {
+            return false;
+        }
+        trialRunning = true;
+        return true;
+    }
+
+    /**
+     * Records an answer from the host closing the circuit
+     */
+    synchronized void recordSuccess() {
+        failures = 0;
+        open = false;
+        trialRunning = false;
+        openTime = OPEN_TIME;
+    }
+
+    /**
+     * Records a host failure
+     * @return A boolean that indicates if the circuit has been opened by this failure
+     */
+    synchronized boolean recordFailure() {
+        if (open) {
+            if (!trialRunning) {
+                return false;
+            }
+            //The trial failed, keep the host disabled for longer
+            trialRunning = false;
+            openTime = Math.min(MAX_OPEN_TIME, openTime * 2);
+            openUntil = System.currentTimeMillis() + openTime;
+            return true;
+        }
+        if (++failures >= FAILURE_THRESHOLD) {
+            open = true;
+            openUntil = System.currentTimeMillis() + openTime;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized long getOpenTime() {
+        return openTime;
+    }
+
+    /**
+     * Returns how long requests to the host remain paused
+     * @return The time in milliseconds, 0 if a request can be sent or -1 if the host keeps failing its trials
+     */
+    synchronized long getPausedTime() {
+        if (!open) {
+            return 0;
+        }
+        if (openTime >= MAX_OPEN_TIME) {
+            return -1;
+        }
+        long left = openUntil - System.currentTimeMillis();
+        if (left > 0) {
+            return left;
+        }
+        return trialRunning ? TRIAL_POLL : 0;
+    }
+}
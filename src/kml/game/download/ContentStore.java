@@ -0,0 +1,136 @@
+package kml.game.download;
+
+import kml.Console;
+import kml.Kernel;
+import kml.utils.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class ContentStore {
+    private final Kernel kernel;
+    private final Console console;
+    private final AtomicBoolean linkWarned = new AtomicBoolean();
+
+    public ContentStore(Kernel k) {
+        kernel = k;
+        console = k.getConsole();
+    }
+
+    /**
+     * Returns the folder of the store, shared by every working directory that points to it
+     * @return The store folder
+     */
+    public final File getRoot() {
+        if (!isShared()) {
+            return new File(Kernel.APPLICATION_CACHE, "store");
+        }
+        return new File(kernel.getSettings().getSharedStorePath());
+    }
+
+    /**
+     * Checks if the store is configured outside the working directory, where other working directories may use it
+     * @return A boolean with the result
+     */
+    public final boolean isShared() {
+        String path = kernel.getSettings().getSharedStorePath();
+        return path != null && !path.isEmpty();
+    }
+
+    /**
+     * Returns the location of an object inside the store
+     * @param sha1 The SHA-1 of the object
+     * @return The object path, it may not exist
+     */
+    public final File getObject(String sha1) {
+        String hash = sha1.toLowerCase();
+        return new File(getRoot(), hash.substring(0, 2) + File.separator + hash);
+    }
+
+    /**
+     * Checks if the store holds a valid copy of an object
+     * @param sha1 The SHA-1 of the object
+     * @param size The expected size or a value lower than 1 if unknown
+     * @return A boolean with the result
+     */
+    public final boolean contains(String sha1, long size) {
+        return sha1 != null && kernel.getVerifiedFileIndex().verify(getObject(sha1), sha1, size);
+    }
+
+    /**
+     * Places a stored object at the target path linking to it when the file system allows it
+     * @param sha1 The SHA-1 of the object
+     * @param size The expected size or a value lower than 1 if unknown
+     * @param target The target path
+     * @return A boolean that indicates if the target now holds the object
+     */
+    public final boolean materialize(String sha1, long size, File target) {
+        if (!contains(sha1, size)) {
+            return false;
+        }
+        File object = getObject(sha1);
+        try {
+            if (target.getParentFile() != null) {
+                target.getParentFile().mkdirs();
+            }
+            if (!target.isFile() || !Files.isSameFile(object.toPath(), target.toPath())) {
+                Utils.linkFile(object, target, false);
+            }
+            kernel.getVerifiedFileIndex().record(target, sha1);
+            return true;
+        } catch (IOException ex) {
+            console.print("Failed to materialize " + target.getName() + " from the shared store.");
+            ex.printStackTrace(console.getWriter());
+            return false;
+        }
+    }
+
+    /**
+     * Adds a verified file to the store unless an object with the same SHA-1 is already stored. Objects are
+     * hard links to the file, when they cannot be created the file is not stored since a copy would double
+     * the space it takes.
+     * @param file The verified file
+     * @param sha1 The SHA-1 of the file
+     */
+    public final void add(File file, String sha1) {
+        if (sha1 == null || !file.isFile()) {
+            return;
+        }
+        File object = getObject(sha1);
+        if (object.isFile()) {
+            return;
+        }
+        object.getParentFile().mkdirs();
+        Path temp = object.toPath().resolveSibling(object.getName() + ".link");
+        try {
+            Files.deleteIfExists(temp);
+            Files.createLink(temp, file.toPath());
+        } catch (IOException | UnsupportedOperationException ex) {
+            //Different volumes or a file system without hard links
+            temp.toFile().delete();
+            if (linkWarned.compareAndSet(false, true)) {
+                console.print("Files cannot be linked into the shared store " + getRoot() + ". Downloaded files will not be added to it.");
+            }
+            return;
+        }
+        try {
+            try {
+                Files.move(temp, object.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, object.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            kernel.getVerifiedFileIndex().record(object, sha1);
+        } catch (IOException ex) {
+            temp.toFile().delete();
+            console.print("Failed to add " + file.getName() + " to the shared store.");
+            ex.printStackTrace(console.getWriter());
+        }
+    }
+}
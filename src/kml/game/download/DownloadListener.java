@@ -0,0 +1,14 @@
+package kml.game.download;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public interface DownloadListener {
+    /**
+     * Called from the publisher thread whenever the download state has noticeably changed
+     * @param progress The current download state
+     */
+    void progressChanged(DownloadProgress progress);
+}
@@ -0,0 +1,149 @@
+package kml.game.download;
+
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+class DownloadMetrics {
+    //Weight of the latest sample in the smoothed rates
+    private static final double SMOOTHING = 0.3;
+    private final AtomicInteger filesCompleted = new AtomicInteger(), filesFailed = new AtomicInteger(), retries = new AtomicInteger();
+    private long[] latencies = new long[256];
+    private int latencyCount;
+    private long latencyTotal;
+    private long startMillis, startNanos, lastSampleNanos, lastBytes;
+    private int lastFiles;
+    private double bytesPerSecond, filesPerSecond;
+
+    /**
+     * Starts a new measurement session
+     */
+    synchronized void reset() {
+        filesCompleted.set(0);
+        filesFailed.set(0);
+        retries.set(0);
+        latencyCount = 0;
+        latencyTotal = 0;
+        startMillis = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+        lastSampleNanos = startNanos;
+        lastBytes = 0;
+        lastFiles = 0;
+        bytesPerSecond = 0;
+        filesPerSecond = 0;
+    }
+
+    /**
+     * Records a successful file download
+     * @param latencyNanos The time needed to download the file, retries included
+     */
+    synchronized void fileCompleted(long latencyNanos) {
+        filesCompleted.incrementAndGet();
+        if (latencyCount == latencies.length) {
+            latencies = Arrays.copyOf(latencies, latencyCount * 2);
+        }
+        latencies[latencyCount++] = latencyNanos;
+        latencyTotal += latencyNanos;
+    }
+
+    void fileFailed() {
+        filesFailed.incrementAndGet();
+    }
+
+    void retry() {
+        retries.incrementAndGet();
+    }
+
+    /**
+     * Updates the smoothed rates with the current counters
+     * @param bytes The amount of bytes downloaded so far
+     */
+    synchronized void sample(long bytes) {
+        long now = System.nanoTime();
+        long elapsed = now - lastSampleNanos;
+        if (elapsed <= 0) {
+            return;
+        }
+        int files = filesCompleted.get();
+        double seconds = elapsed / 1.0e9;
+        bytesPerSecond = SMOOTHING * (Math.max(0, bytes - lastBytes) / seconds) + (1 - SMOOTHING) * bytesPerSecond;
+        filesPerSecond = SMOOTHING * ((files - lastFiles) / seconds) + (1 - SMOOTHING) * filesPerSecond;
+        lastSampleNanos = now;
+        lastBytes = bytes;
+        lastFiles = files;
+    }
+
+    synchronized double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    synchronized double getFilesPerSecond() {
+        return filesPerSecond;
+    }
+
+    synchronized double getAverageLatencyMillis() {
+        return latencyCount == 0 ? 0 : latencyTotal / 1.0e6 / latencyCount;
+    }
+
+    int getFilesCompleted() {
+        return filesCompleted.get();
+    }
+
+    int getFilesFailed() {
+        return filesFailed.get();
+    }
+
+    int getRetries() {
+        return retries.get();
+    }
+
+    synchronized long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Builds a machine readable summary of the session
+     * @param downloaded The downloaded bytes
+     * @param validated The bytes that were already valid
+     * @param total The bytes required by the version
+     * @return The session summary
+     */
+    synchronized JSONObject toSummary(long downloaded, long validated, long total) {
+        long durationNanos = System.nanoTime() - startNanos;
+        JSONObject o = new JSONObject();
+        o.put("start", startMillis);
+        o.put("end", System.currentTimeMillis());
+        o.put("durationMillis", durationNanos / 1000000);
+        o.put("filesCompleted", filesCompleted.get());
+        o.put("filesFailed", filesFailed.get());
+        o.put("retries", retries.get());
+        o.put("bytesDownloaded", downloaded);
+        o.put("bytesValidated", validated);
+        o.put("bytesTotal", total);
+        o.put("averageBytesPerSecond", durationNanos <= 0 ? 0 : (long) (downloaded / (durationNanos / 1.0e9)));
+        JSONObject latency = new JSONObject();
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        latency.put("average", getAverageLatencyMillis());
+        latency.put("p50", percentileMillis(sorted, 0.50));
+        latency.put("p95", percentileMillis(sorted, 0.95));
+        latency.put("p99", percentileMillis(sorted, 0.99));
+        latency.put("max", sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1.0e6);
+        o.put("latencyMillis", latency);
+        return o;
+    }
+
+    private static double percentileMillis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1.0e6;
+    }
+}
@@ -0,0 +1,78 @@
+package kml.game.download;
+
+import kml.game.version.Version;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class DownloadPlan {
+    private final Version version;
+    private final Set<Downloadable> critical;
+    private final Set<Downloadable> background;
+
+    public DownloadPlan(Version version, Set<Downloadable> critical, Set<Downloadable> background) {
+        this.version = version;
+        this.critical = Collections.unmodifiableSet(critical);
+        this.background = Collections.unmodifiableSet(background);
+    }
+
+    /**
+     * Returns the version this plan has been computed for
+     * @return The planned version or null when nothing has been planned
+     */
+    public final Version getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the missing files that must be present before the game can be started
+     * @return The launch critical files
+     */
+    public final Set<Downloadable> getCritical() {
+        return critical;
+    }
+
+    /**
+     * Returns the missing files that can keep downloading while the game runs
+     * @return The non critical files
+     */
+    public final Set<Downloadable> getBackground() {
+        return background;
+    }
+
+    /**
+     * Returns the amount of files that must be downloaded
+     * @return The missing file count
+     */
+    public final int getMissingFiles() {
+        return critical.size() + background.size();
+    }
+
+    /**
+     * Returns the known amount of bytes that must be downloaded
+     * @return The missing bytes
+     */
+    public final long getMissingBytes() {
+        long bytes = 0;
+        for (Downloadable d : critical) {
+            bytes += Math.max(0, d.getSize());
+        }
+        for (Downloadable d : background) {
+            bytes += Math.max(0, d.getSize());
+        }
+        return bytes;
+    }
+
+    /**
+     * Checks if there is nothing left to download
+     * @return A boolean that indicates if the plan is empty
+     */
+    public final boolean isEmpty() {
+        return critical.isEmpty() && background.isEmpty();
+    }
+}
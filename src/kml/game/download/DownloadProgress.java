@@ -0,0 +1,122 @@
+package kml.game.download;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class DownloadProgress {
+    private final double progress;
+    private final String currentFile;
+    private final long downloadedBytes, validatedBytes, totalBytes;
+    private final double bytesPerSecond, filesPerSecond;
+    private final long etaSeconds;
+    private final int filesCompleted, filesFailed, retries;
+    private final double averageLatencyMillis;
+    private final boolean finished;
+
+    DownloadProgress(double progress, String currentFile, long downloadedBytes, long validatedBytes, long totalBytes,
+                     double bytesPerSecond, double filesPerSecond, long etaSeconds, int filesCompleted, int filesFailed,
+                     int retries, double averageLatencyMillis, boolean finished) {
+        this.progress = progress;
+        this.currentFile = currentFile;
+        this.downloadedBytes = downloadedBytes;
+        this.validatedBytes = validatedBytes;
+        this.totalBytes = totalBytes;
+        this.bytesPerSecond = bytesPerSecond;
+        this.filesPerSecond = filesPerSecond;
+        this.etaSeconds = etaSeconds;
+        this.filesCompleted = filesCompleted;
+        this.filesFailed = filesFailed;
+        this.retries = retries;
+        this.averageLatencyMillis = averageLatencyMillis;
+        this.finished = finished;
+    }
+
+    /**
+     * Returns the overall progress
+     * @return A value between 0 and 1
+     */
+    public final double getProgress() {
+        return progress;
+    }
+
+    public final String getCurrentFile() {
+        return currentFile;
+    }
+
+    public final long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    public final long getValidatedBytes() {
+        return validatedBytes;
+    }
+
+    public final long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Returns the smoothed transfer rate
+     * @return The downloaded bytes per second
+     */
+    public final double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Returns the smoothed file completion rate
+     * @return The downloaded files per second
+     */
+    public final double getFilesPerSecond() {
+        return filesPerSecond;
+    }
+
+    /**
+     * Returns the estimated time left
+     * @return The seconds left or -1 if unknown
+     */
+    public final long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+    public final int getFilesCompleted() {
+        return filesCompleted;
+    }
+
+    public final int getFilesFailed() {
+        return filesFailed;
+    }
+
+    public final int getRetries() {
+        return retries;
+    }
+
+    /**
+     * Returns the average time needed to download a file, retries included
+     * @return The average latency in milliseconds
+     */
+    public final double getAverageLatencyMillis() {
+        return averageLatencyMillis;
+    }
+
+    /**
+     * Checks if this is the last update of the download session
+     * @return A boolean with the session state
+     */
+    public final boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Checks if the state changed enough to be worth publishing, rates alone do not count as a change
+     * @param o The last published state
+     * @return A boolean that indicates if listeners should be notified
+     */
+    final boolean differsFrom(DownloadProgress o) {
+        return o == null || (int) (progress * 1000) != (int) (o.progress * 1000) || finished != o.finished
+                || filesCompleted != o.filesCompleted || filesFailed != o.filesFailed || retries != o.retries
+                || !currentFile.equals(o.currentFile);
+    }
+}
@@ -2,24 +2,33 @@ package kml.game.download;
 
 import kml.Console;
 import kml.Kernel;
+import kml.Settings;
 import kml.utils.Utils;
 import kml.exceptions.DownloaderException;
+import kml.exceptions.HttpStatusException;
 import kml.game.profile.Profile;
 import kml.game.version.Version;
 import kml.game.version.VersionMeta;
 import kml.game.version.Versions;
 import kml.game.version.asset.AssetIndex;
+import kml.game.version.asset.AssetIndexReader;
 import kml.game.version.library.Library;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.*;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author DarkLBP
@@ -29,34 +38,261 @@ import java.util.*;
 public class Downloader {
     private final Console console;
     private final Kernel kernel;
-    private double downloaded, validated, total;
-    private boolean downloading;
-    private String currentFile = "";
-    private final int DOWNLOAD_TRIES = 5;
+    private final AtomicLong downloaded = new AtomicLong(), validated = new AtomicLong(), total = new AtomicLong();
+    private volatile boolean downloading;
+    private volatile String currentFile = "";
+    private final RetryPolicy retryPolicy = new RetryPolicy(5, 500, 30000);
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private final HttpTransport transport = new HttpTransport();
+    private final MirrorSelector mirrors;
+    private volatile Thread backgroundDownload;
+    private static final long PUBLISH_INTERVAL = 100;
+    private final List<DownloadListener> listeners = new CopyOnWriteArrayList<>();
+    private final DownloadMetrics metrics = new DownloadMetrics();
+    private final Object publishLock = new Object();
+    private ScheduledExecutorService publisher;
+    private DownloadProgress lastPublished;
+    private boolean sessionActive;
+    private final Set<Downloadable> repairs = Collections.newSetFromMap(new ConcurrentHashMap<Downloadable, Boolean>());
 
     public Downloader(Kernel k) {
         kernel = k;
         console = k.getConsole();
+        mirrors = new MirrorSelector(console);
     }
 
     /**
-     * Downloads all requires game files
+     * Downloads all required game files. Only launch critical files are downloaded before returning, the remaining
+     * assets keep downloading in the background while {@link #isDownloading()} is true.
      * @throws DownloaderException If the download fails
      */
     public final void download() throws DownloaderException {
-        //Initial values
-        downloading = true;
-        downloaded = 0;
-        validated = 0;
-        total = 0;
-        int tries;
-
         console.print("Download work has started.");
         if (Kernel.USE_LOCAL) {
             console.print("You are in offline mode.");
+            return;
+        }
+        claim();
+        beginSession();
+        final DownloadPlan plan;
+        try {
+            plan = computePlan();
+        } catch (DownloaderException | RuntimeException ex) {
+            downloading = false;
+            endSession(null);
+            throw ex;
+        }
+        console.print("Downloading required game files...");
+        if (plan.isEmpty()) {
+            console.print("Nothing to download.");
+            downloading = false;
+            endSession(plan);
+            return;
+        }
+        final VerifiedFileIndex fileIndex = kernel.getVerifiedFileIndex();
+        if (!plan.getCritical().isEmpty()) {
+            int failed = downloadFiles(plan.getCritical());
+            fileIndex.save();
+            if (failed > 0) {
+                //The game cannot start without them
+                downloading = false;
+                endSession(plan);
+                throw new DownloaderException(failed + " launch critical files could not be downloaded.");
+            }
+        }
+        if (plan.getBackground().isEmpty()) {
             downloading = false;
+            endSession(plan);
             return;
         }
+        console.print("Launch critical files are ready. " + plan.getBackground().size() + " assets will keep downloading in the background.");
+        backgroundDownload = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                downloadFiles(plan.getBackground());
+                fileIndex.save();
+                console.print("Background download work has finished.");
+                downloading = false;
+                endSession(plan);
+            }
+        }, "Downloader-background");
+        backgroundDownload.start();
+    }
+
+    /**
+     * Stops the threads shared by the downloads, called when the launcher shuts down
+     */
+    public final void shutdown() {
+        mirrors.shutdown();
+    }
+
+    /**
+     * Registers a listener that will receive coalesced progress updates of every download session
+     * @param listener The listener to be added
+     */
+    public final void addListener(DownloadListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a progress listener
+     * @param listener The listener to be removed
+     */
+    public final void removeListener(DownloadListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts measuring a download session and publishing its progress
+     */
+    private void beginSession() {
+        synchronized (publishLock) {
+            metrics.reset();
+            lastPublished = null;
+            sessionActive = true;
+            publisher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Downloader-progress");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            publisher.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    publish(false);
+                }
+            }, 0, PUBLISH_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the current download session publishing its final state
+     * @param plan The plan that has been downloaded or null if no summary should be written
+     */
+    private void endSession(DownloadPlan plan) {
+        synchronized (publishLock) {
+            if (!sessionActive) {
+                return;
+            }
+            publisher.shutdownNow();
+            publish(true);
+            sessionActive = false;
+        }
+        if (plan != null) {
+            writeSummary(plan);
+        }
+    }
+
+    /**
+     * Notifies the listeners if the download state has changed since the last update
+     * @param finished If this is the last update of the session
+     */
+    private void publish(boolean finished) {
+        synchronized (publishLock) {
+            if (!sessionActive) {
+                return;
+            }
+            long d = downloaded.get(), v = validated.get(), t = total.get();
+            metrics.sample(d);
+            double rate = metrics.getBytesPerSecond();
+            long remaining = t - d - v;
+            long eta = remaining <= 0 ? 0 : rate > 0 ? (long) (remaining / rate) : -1;
+            DownloadProgress progress = new DownloadProgress(t <= 0 ? 0 : (double) (d + v) / t, currentFile, d, v, t,
+                    rate, metrics.getFilesPerSecond(), eta, metrics.getFilesCompleted(), metrics.getFilesFailed(),
+                    metrics.getRetries(), metrics.getAverageLatencyMillis(), finished);
+            if (!progress.differsFrom(lastPublished)) {
+                return;
+            }
+            lastPublished = progress;
+            for (DownloadListener l : listeners) {
+                try {
+                    l.progressChanged(progress);
+                } catch (RuntimeException ex) {
+                    console.print("Download listener failed.");
+                    ex.printStackTrace(console.getWriter());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a machine readable summary of the finished download session to the logs folder
+     * @param plan The plan that has been downloaded
+     */
+    private void writeSummary(DownloadPlan plan) {
+        JSONObject summary = metrics.toSummary(downloaded.get(), validated.get(), total.get());
+        if (plan.getVersion() != null) {
+            summary.put("version", plan.getVersion().getID());
+        }
+        summary.put("filesPlanned", plan.getMissingFiles());
+        summary.put("bytesPlanned", plan.getMissingBytes());
+        summary.put("downloadThreads", kernel.getSettings().getDownloadThreads());
+        summary.put("downloadThreadsPerHost", kernel.getSettings().getDownloadThreadsPerHost());
+        File summaries = new File(Kernel.APPLICATION_LOGS, "downloads");
+        summaries.mkdirs();
+        File output = new File(summaries, "download-" + metrics.getStartMillis() + ".json");
+        if (!Utils.writeToFile(summary.toString(2), output)) {
+            console.print("Failed to write download summary " + output.getName());
+        }
+    }
+
+    /**
+     * Waits until the background download work has finished
+     * @throws InterruptedException If the current thread has been interrupted while waiting
+     */
+    public final void awaitBackground() throws InterruptedException {
+        Thread t = backgroundDownload;
+        if (t != null) {
+            t.join();
+        }
+    }
+
+    /**
+     * Computes which game files are missing or invalid for the selected profile without downloading them
+     * @return The download plan
+     * @throws DownloaderException If the plan could not be computed
+     */
+    public final DownloadPlan plan() throws DownloaderException {
+        claim();
+        beginSession();
+        try {
+            return computePlan();
+        } finally {
+            downloading = false;
+            endSession(null);
+        }
+    }
+
+    /**
+     * Marks the downloader as busy. Checked before a session starts so a running session is never reset.
+     * @throws DownloaderException If download work is already running
+     */
+    private synchronized void claim() throws DownloaderException {
+        if (downloading) {
+            throw new DownloaderException("Download work is already running.");
+        }
+        downloading = true;
+    }
+
+    /**
+     * Resolves the selected version and validates the local copy of every file it needs
+     * @return The download plan
+     * @throws DownloaderException If the plan could not be computed
+     */
+    private DownloadPlan computePlan() throws DownloaderException {
+        //Initial values
+        downloaded.set(0);
+        validated.set(0);
+        total.set(0);
+
+        //Rank the download hosts before using them
+        mirrors.configure(getConfiguredMirrors());
+        if (mirrors.hasMirrors()) {
+            mirrors.probe();
+        }
 
         //Fetch version used by profile
         Profile p = kernel.getProfiles().getSelectedProfile();
@@ -85,59 +321,44 @@ public class Downloader {
         }
 
         //Get required files to be downloaded
-        Set<Downloadable> urls = new HashSet<>();
+        Set<Downloadable> urls = Collections.newSetFromMap(new ConcurrentHashMap<Downloadable, Boolean>());
+        Set<Downloadable> assetUrls = Collections.newSetFromMap(new ConcurrentHashMap<Downloadable, Boolean>());
+
+        //Files that already have a local copy that needs to be validated
+        List<Downloadable> candidates = new ArrayList<>();
+        List<File> candidatePaths = new ArrayList<>();
+        AssetPlan assets = null;
+        boolean assetsRequired = false;
 
         //Fetch assets
         console.print("Fetching asset urls..");
         AssetIndex index = v.getAssetIndex();
         File indexJSON = new File(Kernel.APPLICATION_WORKING_DIR, "assets" + File.separator + "indexes" + File.separator + index.getID() + ".json");
-        tries = 0;
-        if (!Utils.verifyChecksum(indexJSON, index.getSHA1(), "SHA-1")) {
-            while (tries < DOWNLOAD_TRIES) {
-                try {
-                    Utils.downloadFile(index.getURL(), indexJSON);
-                    break;
-                } catch (IOException ex) {
-                    console.print("Failed to download file " + indexJSON.getName() + " (try " + tries + ')');
-                    ex.printStackTrace(console.getWriter());
-                    tries++;
-                }
-            }
-        }
-        if (tries == DOWNLOAD_TRIES) {
+        VerifiedFileIndex fileIndex = kernel.getVerifiedFileIndex();
+        if (!fileIndex.verify(indexJSON, index.getSHA1(), -1) && !fetchMetadata(index.getURL(), indexJSON)) {
             console.print("Failed to download asset index for version " + index.getID());
         } else {
-            //Load assets
+            //Load assets, an index entry takes roughly 100 bytes
+            final AssetPlan plan = new AssetPlan((int) (indexJSON.length() / 100));
+            AssetIndexReader reader = new AssetIndexReader(indexJSON);
             try {
-                JSONObject root;
-                try {
-                    root = new JSONObject(new String(Files.readAllBytes(indexJSON.toPath()), StandardCharsets.UTF_8));
-                } catch (JSONException | IOException ex) {
-                    downloading = false;
-                    throw new DownloaderException("Failed to read asset index json file.");
-                }
-                JSONObject objects = root.getJSONObject("objects");
-                Set<String> keys = objects.keySet();
-                Collection<String> processedHashes = new ArrayList<>();
-                File objectsRoot = new File("assets" + File.separator + "objects");
-                for (String key : keys) {
-                    JSONObject o = objects.getJSONObject(key);
-                    String hash = o.getString("hash");
-                    long size = o.getLong("size");
-                    String downloadURL = "http://resources.download.minecraft.net/" + hash.substring(0, 2) + '/' + hash;
-                    File relPath = new File(objectsRoot, hash.substring(0, 2) + File.separator + hash);
-                    File fullPath = new File(Kernel.APPLICATION_WORKING_DIR + File.separator + relPath);
-                    if (!processedHashes.contains(hash)) {
-                        total += size;
-                        processedHashes.add(hash);
-                        if (!Utils.verifyChecksum(fullPath, hash, "SHA-1")) {
-                            Downloadable d = new Downloadable(downloadURL, size, relPath, hash, key);
-                            urls.add(d);
-                        } else {
-                            validated += size;
+                reader.read(new AssetIndexReader.Handler() {
+                    @Override
+                    public void asset(String name, String hash, long size) {
+                        try {
+                            plan.add(hash, size, name);
+                        } catch (IllegalArgumentException ex) {
+                            console.print("Skipping asset " + name + ". " + ex.getMessage());
                         }
                     }
-                }
+                });
+                //Virtual asset trees are built from the objects before the game starts
+                assetsRequired = "legacy".equals(index.getID()) || reader.isVirtual() || reader.isMapToResources();
+                assets = plan;
+                total.addAndGet(assets.getTotalSize());
+            } catch (IOException ex) {
+                downloading = false;
+                throw new DownloaderException("Failed to read asset index json file.");
             } catch (JSONException ex) {
                 console.print("Failed to parse asset index.");
             }
@@ -149,30 +370,14 @@ public class Downloader {
         if (downloads.containsKey("client")) {
             Downloadable d = downloads.get("client");
             if (d.hasURL()) {
-                long jarSize = d.getSize();
-                String jarSHA1 = d.getHash();
-                total += d.getSize();
+                total.addAndGet(d.getSize());
                 File destPath = new File(Kernel.APPLICATION_WORKING_DIR + File.separator + v.getRelativeJar());
                 File jsonFile = new File(Kernel.APPLICATION_WORKING_DIR + File.separator + v.getRelativeJSON());
-                tries = 0;
-                while (tries < DOWNLOAD_TRIES) {
-                    try {
-                        Utils.downloadFile(v.getJSONURL(), jsonFile);
-                        break;
-                    } catch (IOException ex) {
-                        console.print("Failed to download file " + jsonFile.getName() + " (try " + tries + ')');
-                        ex.printStackTrace(console.getWriter());
-                        tries++;
-                    }
-                }
-                if (tries == DOWNLOAD_TRIES) {
+                if (!fetchMetadata(v.getJSONURL(), jsonFile)) {
                     console.print("Failed to download version index " + destPath.getName());
                 }
-                if (!Utils.verifyChecksum(destPath, jarSHA1, "SHA-1")) {
-                    urls.add(d);
-                } else {
-                    validated += jarSize;
-                }
+                candidates.add(d);
+                candidatePaths.add(destPath);
             } else {
                 console.print("Incompatible version downloadable.");
             }
@@ -181,7 +386,7 @@ public class Downloader {
             File relPath = v.getRelativeJar();
             console.print("Found legacy version " + jar);
             if (!relPath.exists()) {
-                Downloadable d = new Downloadable("https://s3.amazonaws.com/Minecraft.Download/versions/" + jar + "/" + jar + ".jar", -1, v.getRelativeJar(), null, null);
+                Downloadable d = new Downloadable(MirrorSelector.VERSIONS_URL + "versions/" + jar + "/" + jar + ".jar", -1, v.getRelativeJar(), null, null);
                 urls.add(d);
             } else {
                 console.print("Legacy version file found. Assuming is valid.");
@@ -203,46 +408,59 @@ public class Downloader {
                     if (completePath.isFile() && a.getHash() == null) {
                         console.print("File " + completePath + " has no hash. So let's assume the local one is valid.");
                     } else {
-                        total += a.getSize();
-                        if (Utils.verifyChecksum(completePath, a.getHash(), "SHA-1")) {
-                            validated += a.getSize();
-                        } else {
-                            urls.add(a);
-                        }
+                        total.addAndGet(a.getSize());
+                        candidates.add(a);
+                        candidatePaths.add(completePath);
                     }
                 }
                 //Native download
                 if (lib.hasClassifierDownload()) {
                     Downloadable c = lib.getClassifierDownload();
                     File completePath = new File(Kernel.APPLICATION_WORKING_DIR + File.separator + c.getRelativePath());
-                    total += c.getSize();
+                    total.addAndGet(c.getSize());
                     if (completePath.isFile() && c.getHash() == null) {
                         console.print("File " + completePath + " has no hash. So let's assume the local one is valid.");
                     } else {
-                        if (Utils.verifyChecksum(completePath, c.getHash(), "SHA-1")) {
-                            validated += c.getSize();
-                        } else {
-                            urls.add(c);
-                        }
+                        candidates.add(c);
+                        candidatePaths.add(completePath);
                     }
                 }
             }
         }
-        console.print("Downloading required game files...");
-        if (urls.isEmpty()) {
-            console.print("Nothing to download.");
-        } else {
-            //Download required files
-            downloadFiles(urls);
+
+        //Validate local files
+        console.print("Validating " + (candidates.size() + (assets == null ? 0 : assets.size())) + " local files...");
+        ForkJoinPool validationPool = new ForkJoinPool();
+        try {
+            validationPool.invoke(new ChecksumTask(candidates, candidatePaths, 0, candidates.size(), urls));
+            if (assets != null) {
+                validationPool.invoke(new AssetChecksumTask(assets, 0, assets.size(), assetsRequired ? urls : assetUrls));
+            }
+        } finally {
+            validationPool.shutdown();
+            fileIndex.save();
+        }
+        //Corrupted files found while idle, they may belong to other versions
+        for (Downloadable d : repairs) {
+            if (!assetUrls.contains(d) && urls.add(d)) {
+                total.addAndGet(d.getSize());
+            }
+        }
+        if (!urls.isEmpty() || !assetUrls.isEmpty()) {
+            //Replaced objects are new files the virtual asset folders do not link to yet
+            VirtualAssets.invalidateAll();
         }
-        downloading = false;
+        DownloadPlan plan = new DownloadPlan(v, urls, assetUrls);
+        console.print(plan.getMissingFiles() + " files (" + plan.getMissingBytes() + " bytes) need to be downloaded.");
+        return plan;
     }
 
     /**
      * Performs the download of a Downloadable
      * @param dw The target Downloadable
+     * @return A boolean that indicates if the file has been downloaded
      */
-    private void downloadFile(Downloadable dw) {
+    private boolean downloadFile(Downloadable dw) {
         File path = dw.getRelativePath();
         File fullPath = new File(Kernel.APPLICATION_WORKING_DIR + File.separator + path);
         if (fullPath.getParentFile() != null) {
@@ -251,7 +469,8 @@ public class Downloader {
         if (dw.hasURL()) {
             try {
                 URL url = new URL(dw.getURL());
-                int tries = 0;
+                int failures = 0;
+                boolean completed = false;
                 if (dw.hasFakePath()) {
                     currentFile = dw.getFakePath();
                 } else {
@@ -261,50 +480,406 @@ public class Downloader {
                 if (dw.getSize() == 0) {
                     console.print(dw.getURL() + " has no expected size.");
                     try {
-                        URLConnection con = url.openConnection();
-                        long length = con.getContentLength();
-                        total += length;
+                        long length = transport.getContentLength(url);
+                        if (length > 0) {
+                            total.addAndGet(length);
+                        }
                     } catch (IOException ex) {
                         console.print("Failed to determine size from " + dw.getURL());
                     }
                 }
-                while (tries < DOWNLOAD_TRIES) {
-                    int totalRead = 0;
-                    try (InputStream in = url.openStream();
-                         OutputStream out = new FileOutputStream(fullPath)){
-                        byte[] buffer = new byte[8192];
-                        int read;
-                        while ((read = in.read(buffer)) != -1) {
-                            out.write(buffer, 0, read);
-                            downloaded += read;
-                            totalRead += read;
+                File partPath = new File(fullPath.getPath() + ".part");
+                long counted = 0;
+                long start = System.nanoTime();
+                while (true) {
+                    long offset = partPath.isFile() ? partPath.length() : 0;
+                    URLConnection con = null;
+                    FailureType failure;
+                    try {
+                        con = mirrors.open(transport, url, offset);
+                        boolean resume = offset > 0 && con instanceof HttpURLConnection
+                                && ((HttpURLConnection) con).getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
+                        if (!resume) {
+                            offset = 0;
+                        } else {
+                            console.print("Resuming " + currentFile + " from byte " + offset);
+                        }
+                        downloaded.addAndGet(offset - counted);
+                        counted = offset;
+                        MessageDigest digest = null;
+                        if (dw.getHash() != null) {
+                            digest = Utils.getDigest("SHA-1");
+                            if (resume) {
+                                updateDigest(digest, partPath);
+                            }
+                        }
+                        try (InputStream in = con.getInputStream();
+                             OutputStream out = new FileOutputStream(partPath, resume)) {
+                            byte[] buffer = new byte[16384];
+                            int read;
+                            while ((read = in.read(buffer)) != -1) {
+                                out.write(buffer, 0, read);
+                                if (digest != null) {
+                                    digest.update(buffer, 0, read);
+                                }
+                                downloaded.addAndGet(read);
+                                counted += read;
+                            }
+                        }
+                        if (digest != null && !dw.getHash().equalsIgnoreCase(Utils.toHex(digest.digest()))) {
+                            console.print("Checksum mismatch for " + currentFile + " (try " + failures + ')');
+                            partPath.delete();
+                            failure = FailureType.CHECKSUM_MISMATCH;
+                            //The next attempt has to be served by another location
+                            mirrors.reportCorrupt(con.getURL());
+                        } else {
+                            commitFile(partPath, fullPath);
+                            if (digest != null) {
+                                kernel.getVerifiedFileIndex().record(fullPath, dw.getHash());
+                                if (!path.getPath().startsWith("assets" + File.separator)) {
+                                    //Asset objects are already stored by hash
+                                    kernel.getContentStore().add(fullPath, dw.getHash());
+                                }
+                            }
+                            metrics.fileCompleted(System.nanoTime() - start);
+                            repairs.remove(dw);
+                            completed = true;
+                            break;
                         }
-                        break;
                     } catch (IOException ex) {
-                        console.print("Failed to download file " + currentFile + " (try " + tries + ')');
-                        ex.printStackTrace(console.getWriter());
-                        downloaded -= totalRead;
-                        tries++;
+                        failure = RetryPolicy.classify(ex);
+                        if (con == null && offset > 0 && ex instanceof HttpStatusException
+                                && ((HttpStatusException) ex).getStatusCode() == HTTP_RANGE_NOT_SATISFIABLE) {
+                            console.print("Discarding unusable partial file " + partPath.getName());
+                            if (partPath.delete()) {
+                                //The next request will not ask for a range
+                                failure = FailureType.PARTIAL_REJECTED;
+                            } else {
+                                console.print("Failed to delete partial file " + partPath.getName());
+                            }
+                        } else {
+                            console.print("Failed to download file " + currentFile + " (try " + failures + ", " + failure + ')');
+                            ex.printStackTrace(console.getWriter());
+                        }
+                        if (con != null && RetryPolicy.isHostFailure(failure)) {
+                            //The connection was opened so the failure happened while reading
+                            mirrors.reportFailure(con.getURL());
+                        }
+                    }
+                    if (failure == FailureType.CIRCUIT_OPEN) {
+                        //No request was sent, wait until a location accepts them again
+                        if (!awaitHost(url)) {
+                            break;
+                        }
+                        continue;
+                    }
+                    failures++;
+                    if (!retryPolicy.shouldRetry(failure, failures) || !backoff(failure, failures)) {
+                        break;
                     }
+                    metrics.retry();
                 }
-                if (tries == DOWNLOAD_TRIES) {
+                if (!completed) {
+                    downloaded.addAndGet(-counted);
+                    metrics.fileFailed();
                     console.print("Failed to download file " + path.getName() + " from " + url);
                 }
+                return completed;
             } catch (MalformedURLException e) {
+                metrics.fileFailed();
                 console.print("Invalid URL " + dw.getURL());
                 e.printStackTrace(console.getWriter());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the mirrors from the settings with the LAN cache server, if any, ahead of them
+     * @return A map of origin base URLs to the base URLs of their mirrors
+     */
+    private Map<String, List<String>> getConfiguredMirrors() {
+        Settings settings = kernel.getSettings();
+        Map<String, List<String>> configured = new LinkedHashMap<>();
+        if (!settings.getLanCacheHost().isEmpty()) {
+            for (Map.Entry<String, List<String>> e : LanCacheServer.getMirrors(settings.getLanCacheHost()).entrySet()) {
+                configured.put(e.getKey(), new ArrayList<>(e.getValue()));
             }
         }
+        for (Map.Entry<String, List<String>> e : settings.getMirrors().entrySet()) {
+            List<String> list = configured.get(e.getKey());
+            if (list == null) {
+                configured.put(e.getKey(), new ArrayList<>(e.getValue()));
+            } else {
+                list.addAll(e.getValue());
+            }
+        }
+        return configured;
+    }
+
+    /**
+     * Downloads a metadata file retrying with backoff on transient failures
+     * @param url The source URL
+     * @param output The destination file
+     * @return A boolean that indicates if the file has been downloaded
+     */
+    private boolean fetchMetadata(String url, File output) {
+        int failures = 0;
+        while (true) {
+            try {
+                Utils.downloadFile(url, output);
+                return true;
+            } catch (IOException ex) {
+                FailureType failure = RetryPolicy.classify(ex);
+                console.print("Failed to download file " + output.getName() + " (try " + failures + ", " + failure + ')');
+                ex.printStackTrace(console.getWriter());
+                failures++;
+                if (!retryPolicy.shouldRetry(failure, failures) || !backoff(failure, failures)) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits before retrying a failed request
+     * @param failure The type of the last failure
+     * @param failures The amount of failed attempts so far
+     * @return A boolean that indicates if the request should be retried, false if the wait was interrupted
+     */
+    private boolean backoff(FailureType failure, int failures) {
+        long delay = retryPolicy.getDelay(failure, failures);
+        if (delay <= 0) {
+            return true;
+        }
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Waits until a location of a resource accepts requests again after its circuit was opened
+     * @param url The original URL of the resource
+     * @return A boolean that indicates if the request should be sent again, false if every location keeps
+     * failing or the wait was interrupted
+     */
+    private boolean awaitHost(URL url) {
+        long paused = mirrors.getPausedTime(url);
+        if (paused < 0) {
+            return false;
+        }
+        try {
+            Thread.sleep(paused);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Feeds the current content of a file to a digest
+     * @param digest The target digest
+     * @param file The file to be read
+     * @throws IOException If the file could not be read
+     */
+    private static void updateDigest(MessageDigest digest, File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Moves a completed partial download to its final location, atomically when the file system allows it
+     * @param part The completed partial file
+     * @param target The final file
+     * @throws IOException If the file could not be moved
+     */
+    private static void commitFile(File part, File target) throws IOException {
+        try {
+            Files.move(part.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
     }
 
     /**
      * Downloads an entire set of Downloadables
      * @param list The set of Downloadables
+     * @return The amount of files that could not be downloaded
      */
-    private void downloadFiles(Set<Downloadable> list) {
-        for (Downloadable d : list) {
-            downloadFile(d);
+    private int downloadFiles(Set<Downloadable> list) {
+        if (list.isEmpty()) {
+            return 0;
+        }
+        final AtomicInteger completed = new AtomicInteger();
+        int threads = Math.min(kernel.getSettings().getDownloadThreads(), list.size());
+        console.print("Downloading " + list.size() + " files using " + threads + " workers.");
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "Downloader-" + count.incrementAndGet());
+            }
+        });
+        for (final Downloadable d : list) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Semaphore permits = getHostPermits(d);
+                    try {
+                        permits.acquire();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    try {
+                        if (downloadFile(d)) {
+                            completed.incrementAndGet();
+                        }
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            console.print("Download work has been interrupted.");
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        return list.size() - completed.get();
+    }
+
+    /**
+     * Gets the semaphore that limits the concurrent downloads against the host of a Downloadable
+     * @param dw The target Downloadable
+     * @return The semaphore of the host
+     */
+    private Semaphore getHostPermits(Downloadable dw) {
+        String host;
+        try {
+            host = new URL(dw.getURL()).getHost();
+        } catch (MalformedURLException ex) {
+            host = "";
         }
+        Semaphore permits = hostPermits.get(host);
+        if (permits == null) {
+            Semaphore created = new Semaphore(kernel.getSettings().getDownloadThreadsPerHost());
+            permits = hostPermits.putIfAbsent(host, created);
+            if (permits == null) {
+                permits = created;
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * Validates a range of local files against their expected checksum splitting the work across the pool
+     */
+    private final class ChecksumTask extends RecursiveAction {
+        private static final int THRESHOLD = 16;
+        private final List<Downloadable> files;
+        private final List<File> paths;
+        private final int from, to;
+        private final Set<Downloadable> missing;
+
+        ChecksumTask(List<Downloadable> files, List<File> paths, int from, int to, Set<Downloadable> missing) {
+            this.files = files;
+            this.paths = paths;
+            this.from = from;
+            this.to = to;
+            this.missing = missing;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    Downloadable d = files.get(i);
+                    File path = paths.get(i);
+                    currentFile = d.hasFakePath() ? d.getFakePath() : d.getRelativePath().toString();
+                    ContentStore store = kernel.getContentStore();
+                    if (kernel.getVerifiedFileIndex().verify(path, d.getHash(), d.getSize())) {
+                        validated.addAndGet(d.getSize());
+                        store.add(path, d.getHash());
+                    } else if (store.materialize(d.getHash(), d.getSize(), path)) {
+                        console.print("Reused " + currentFile + " from the shared store.");
+                        validated.addAndGet(d.getSize());
+                    } else {
+                        missing.add(d);
+                    }
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChecksumTask(files, paths, from, middle, missing), new ChecksumTask(files, paths, middle, to, missing));
+            }
+        }
+    }
+
+    /**
+     * Validates a range of planned asset objects, only building a Downloadable for the missing ones
+     */
+    private final class AssetChecksumTask extends RecursiveAction {
+        private static final int THRESHOLD = 64;
+        private final AssetPlan assets;
+        private final int from, to;
+        private final Set<Downloadable> missing;
+
+        AssetChecksumTask(AssetPlan assets, int from, int to, Set<Downloadable> missing) {
+            this.assets = assets;
+            this.from = from;
+            this.to = to;
+            this.missing = missing;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                VerifiedFileIndex fileIndex = kernel.getVerifiedFileIndex();
+                for (int i = from; i < to; i++) {
+                    currentFile = assets.getName(i);
+                    File path = new File(Kernel.APPLICATION_WORKING_DIR, assets.getRelativePath(i).getPath());
+                    if (fileIndex.verify(path, assets.getHash(i), assets.getSize(i))) {
+                        validated.addAndGet(assets.getSize(i));
+                    } else {
+                        missing.add(assets.toDownloadable(i));
+                    }
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new AssetChecksumTask(assets, from, middle, missing), new AssetChecksumTask(assets, middle, to, missing));
+            }
+        }
+    }
+
+    /**
+     * Queues a corrupted file to be downloaded again with the next download work
+     * @param d The corrupted file
+     */
+    public final void queueRepair(Downloadable d) {
+        repairs.add(d);
+    }
+
+    /**
+     * Returns the amount of corrupted files waiting to be downloaded again
+     * @return The amount of queued files
+     */
+    public final int getQueuedRepairs() {
+        return repairs.size();
     }
 
     /**
@@ -315,7 +890,11 @@ public class Downloader {
         if (!downloading) {
             return 0;
         }
-        return (downloaded + validated) / total;
+        long t = total.get();
+        if (t <= 0) {
+            return 0;
+        }
+        return (double) (downloaded.get() + validated.get()) / t;
     }
 
     /**
@@ -0,0 +1,9 @@
+package kml.game.download;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+public enum FailureType {
+    CLIENT_ERROR, THROTTLED, SERVER_ERROR, TIMEOUT, CONNECTION_RESET, CHECKSUM_MISMATCH, CIRCUIT_OPEN, PARTIAL_REJECTED
+}
@@ -0,0 +1,404 @@
+package kml.game.download;
+
+import kml.Console;
+import kml.Kernel;
+import kml.game.GameLauncher;
+import kml.game.JavaRuntime;
+import kml.game.NativesCache;
+import kml.game.version.Version;
+import kml.game.version.asset.AssetIndexReader;
+import kml.game.version.library.Library;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class GarbageCollector {
+    private static final String LIBRARIES = "libraries";
+    private static final String OBJECTS = "assets/objects";
+    private static final String INDEXES = "assets/indexes";
+    private static final String VERSIONS = "versions";
+    private static final String STORE = "cache/store";
+    private static final String NATIVES = "cache/natives";
+    private static final String ARCHIVES = "cache/cds";
+    private final Kernel kernel;
+    private final Console console;
+    private final Set<String> liveVersions = new HashSet<>(), liveLibraries = new HashSet<>();
+    private final Set<String> liveIndexes = new HashSet<>(), liveObjects = new HashSet<>();
+    private final Set<String> liveStored = new HashSet<>(), liveNatives = new HashSet<>(), liveArchives = new HashSet<>();
+    //Links left to every multiply linked file found in the sweep, its space is only freed when none is left
+    private final Map<Object, Integer> links = new HashMap<>();
+    private final Deque<File> pendingVersions = new ArrayDeque<>();
+    private final Deque<String> pendingIndexes = new ArrayDeque<>();
+    private final Deque<Entry> pendingFiles = new ArrayDeque<>();
+    private final Set<File> roots = new HashSet<>();
+    private Phase phase = Phase.DONE;
+    private GarbageReport report;
+    private boolean dryRun, sweepLibraries, sweepAssets;
+    private long start;
+
+    private enum Phase {
+        MARK_VERSIONS, MARK_ASSETS, SWEEP, DONE
+    }
+
+    public GarbageCollector(Kernel k) {
+        kernel = k;
+        console = k.getConsole();
+    }
+
+    /**
+     * Runs a whole collection in time slices so the disk is not kept busy for long periods
+     * @param dryRun If unreferenced files should only be reported
+     * @param sliceMillis The maximum time of a slice
+     * @param pauseMillis The pause between two slices
+     * @return The collection report
+     * @throws InterruptedException If the collection was interrupted while pausing
+     */
+    public final GarbageReport collect(boolean dryRun, long sliceMillis, long pauseMillis) throws InterruptedException {
+        begin(dryRun);
+        while (!step(sliceMillis)) {
+            Thread.sleep(pauseMillis);
+        }
+        return report;
+    }
+
+    /**
+     * Starts a new collection. The work is performed by calling step until it returns true.
+     * @param dryRun If unreferenced files should only be reported
+     */
+    public final void begin(boolean dryRun) {
+        this.dryRun = dryRun;
+        report = new GarbageReport(dryRun);
+        liveVersions.clear();
+        liveLibraries.clear();
+        liveIndexes.clear();
+        liveObjects.clear();
+        liveStored.clear();
+        liveNatives.clear();
+        liveArchives.clear();
+        links.clear();
+        pendingVersions.clear();
+        pendingIndexes.clear();
+        pendingFiles.clear();
+        roots.clear();
+        sweepLibraries = true;
+        sweepAssets = true;
+        start = System.currentTimeMillis();
+        File[] versions = new File(Kernel.APPLICATION_WORKING_DIR, VERSIONS).listFiles();
+        if (versions != null) {
+            for (File f : versions) {
+                if (f.isDirectory()) {
+                    pendingVersions.add(f);
+                }
+            }
+        }
+        phase = Phase.MARK_VERSIONS;
+        console.print((dryRun ? "Simulating" : "Starting") + " garbage collection of " + pendingVersions.size() + " installed versions.");
+    }
+
+    /**
+     * Performs collection work for a bounded amount of time
+     * @param budgetMillis The maximum time to spend
+     * @return A boolean that indicates if the collection has finished
+     */
+    public final boolean step(long budgetMillis) {
+        if (phase == Phase.DONE) {
+            return true;
+        }
+        if (kernel.getDownloader().isDownloading()) {
+            //New files would not be marked
+            report.skip("A download started during the collection.");
+            finish();
+            return true;
+        }
+        long deadline = System.nanoTime() + budgetMillis * 1000000L;
+        do {
+            switch (phase) {
+                case MARK_VERSIONS:
+                    if (pendingVersions.isEmpty()) {
+                        phase = Phase.MARK_ASSETS;
+                    } else {
+                        markVersion(pendingVersions.poll());
+                    }
+                    break;
+                case MARK_ASSETS:
+                    if (pendingIndexes.isEmpty()) {
+                        beginSweep();
+                    } else {
+                        markIndex(pendingIndexes.poll());
+                    }
+                    break;
+                case SWEEP:
+                    if (pendingFiles.isEmpty()) {
+                        finish();
+                    } else {
+                        sweep(pendingFiles.pop());
+                    }
+                    break;
+            }
+        } while (phase != Phase.DONE && System.nanoTime() < deadline);
+        return phase == Phase.DONE;
+    }
+
+    /**
+     * Returns the report of the last collection
+     * @return The report or null if no collection has been started
+     */
+    public final GarbageReport getReport() {
+        return report;
+    }
+
+    private void markVersion(File dir) {
+        File json = new File(dir, dir.getName() + ".json");
+        if (!json.isFile()) {
+            return;
+        }
+        liveVersions.add(dir.getName());
+        report.versionScanned();
+        try {
+            Version v = new Version(json.toURI().toURL().toString(), kernel);
+            liveVersions.add(v.getRelativeJar().getParentFile().getName());
+            markStored(v.getDownloads().get("client"));
+            List<Library> nativeLibs = new ArrayList<>();
+            for (Library lib : v.getLibraries()) {
+                if (lib.isCompatible() && lib.isNative()) {
+                    nativeLibs.add(lib);
+                }
+                if (lib.getRelativePath() != null) {
+                    liveLibraries.add(toKey(lib.getRelativePath()));
+                }
+                if (lib.getRelativeNativePath() != null) {
+                    liveLibraries.add(toKey(lib.getRelativeNativePath()));
+                }
+                markStored(lib.getArtifactDownload());
+                markStored(lib.getClassifierDownload());
+            }
+            String nativesKey = NativesCache.getKey(nativeLibs);
+            if (nativesKey != null) {
+                liveNatives.add(nativesKey);
+            }
+            String index = v.getAssetIndex().getID();
+            if (!liveIndexes.contains(index) && !pendingIndexes.contains(index)) {
+                pendingIndexes.add(index);
+            }
+        } catch (Exception ex) {
+            //Without the references of this version nothing shared can be deleted safely
+            console.print("Failed to read version " + dir.getName() + ". Libraries and assets will be kept.");
+            ex.printStackTrace(console.getWriter());
+            sweepLibraries = false;
+            sweepAssets = false;
+            report.skip("Version " + dir.getName() + " could not be read.");
+        }
+    }
+
+    private void markStored(Downloadable d) {
+        if (d != null && d.getHash() != null) {
+            liveStored.add(d.getHash().toLowerCase(Locale.ENGLISH));
+        }
+    }
+
+    private void markIndex(String id) {
+        liveIndexes.add(id);
+        File index = new File(Kernel.APPLICATION_WORKING_DIR, "assets" + File.separator + "indexes" + File.separator + id + ".json");
+        if (!index.isFile()) {
+            sweepAssets = false;
+            report.skip("Asset index " + id + " is missing.");
+            return;
+        }
+        try {
+            new AssetIndexReader(index).read(new AssetIndexReader.Handler() {
+                @Override
+                public void asset(String name, String hash, long size) {
+                    liveObjects.add(hash.toLowerCase(Locale.ENGLISH));
+                }
+            });
+        } catch (IOException | RuntimeException ex) {
+            console.print("Failed to read asset index " + id + ". Assets will be kept.");
+            ex.printStackTrace(console.getWriter());
+            sweepAssets = false;
+            report.skip("Asset index " + id + " could not be read.");
+        }
+    }
+
+    private void beginSweep() {
+        phase = Phase.SWEEP;
+        addRoot(VERSIONS);
+        if (sweepLibraries) {
+            addRoot(LIBRARIES);
+            addRoot(NATIVES);
+            //Other working directories may reference the objects of a shared store
+            if (!kernel.getContentStore().isShared()) {
+                addRoot(STORE);
+            }
+        }
+        if (sweepAssets) {
+            addRoot(OBJECTS);
+            addRoot(INDEXES);
+        }
+        //Archives are only reused by the version and runtime they were created with
+        for (JavaRuntime runtime : kernel.getRuntimeRegistry().getKnown()) {
+            for (String version : liveVersions) {
+                liveArchives.add(GameLauncher.getSharedArchive(version, runtime).getName());
+            }
+        }
+        addRoot(ARCHIVES);
+        console.print("Marked " + liveVersions.size() + " versions, " + liveLibraries.size() + " libraries, "
+                + liveObjects.size() + " asset objects and " + liveStored.size() + " stored objects.");
+    }
+
+    private void addRoot(String path) {
+        File root = new File(Kernel.APPLICATION_WORKING_DIR, path.replace('/', File.separatorChar));
+        if (root.isDirectory()) {
+            roots.add(root);
+            pendingFiles.push(new Entry(root, false));
+        }
+    }
+
+    /**
+     * Processes one file of the sweep, directories are expanded first and removed after their contents if empty
+     * @param e The entry to be processed
+     */
+    private void sweep(Entry e) {
+        File f = e.file;
+        if (e.visited) {
+            String[] left = f.list();
+            if (!dryRun && !roots.contains(f) && left != null && left.length == 0) {
+                f.delete();
+            }
+            return;
+        }
+        if (f.isDirectory()) {
+            pendingFiles.push(new Entry(f, true));
+            File[] children = f.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    pendingFiles.push(new Entry(child, false));
+                }
+            }
+            return;
+        }
+        report.fileScanned();
+        String key = toKey(Kernel.APPLICATION_WORKING_DIR.toPath().relativize(f.toPath()).toFile());
+        String area = getArea(key);
+        if (area == null || isLive(area, key, f)) {
+            return;
+        }
+        report.reclaim(area, getReclaimable(f));
+        if (!dryRun && !f.delete()) {
+            report.deletionFailed();
+            console.print("Failed to delete " + key);
+        }
+    }
+
+    private static String getArea(String key) {
+        for (String area : new String[]{LIBRARIES, OBJECTS, INDEXES, VERSIONS, STORE, NATIVES, ARCHIVES}) {
+            if (key.startsWith(area + '/')) {
+                return area;
+            }
+        }
+        return null;
+    }
+
+    private boolean isLive(String area, String key, File f) {
+        String name = f.getName();
+        switch (area) {
+            case LIBRARIES:
+                return liveLibraries.contains(key);
+            case OBJECTS:
+                return liveObjects.contains(name);
+            case INDEXES:
+                return name.endsWith(".json") && liveIndexes.contains(name.substring(0, name.length() - 5));
+            case STORE:
+                return liveStored.contains(name);
+            case NATIVES:
+                File dir = new File(NativesCache.NATIVES_ROOT, key.split("/")[2]);
+                if (NativesCache.isTemporary(dir)) {
+                    //Natives being extracted or used by a launch that could not cache them
+                    return NativesCache.isInUse(dir);
+                }
+                return liveNatives.contains(dir.getName());
+            case ARCHIVES:
+                return liveArchives.contains(name);
+            default:
+                String[] parts = key.split("/");
+                if (parts.length < 3) {
+                    //Files at the root of the versions folder
+                    return true;
+                }
+                if (!liveVersions.contains(parts[1])) {
+                    return false;
+                }
+                if (name.endsWith(".part") || name.endsWith(".link")) {
+                    return false;
+                }
+                //Natives left behind by a game that did not exit cleanly, the game may run in another process
+                File natives = Kernel.APPLICATION_WORKING_DIR;
+                for (int i = 0; i < parts.length - 1; i++) {
+                    natives = new File(natives, parts[i]);
+                    if (parts[i].contains("-natives-")) {
+                        return NativesCache.isInUse(natives);
+                    }
+                }
+                return true;
+        }
+    }
+
+    /**
+     * Computes the space freed by deleting a file. Files linked from several places, like the working copies
+     * of stored objects, only free their space once their last link is deleted.
+     * @param f The file to be deleted
+     * @return The freed bytes
+     */
+    private long getReclaimable(File f) {
+        Path path = f.toPath();
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            Object fileKey = attrs.fileKey();
+            Integer left = fileKey != null ? links.get(fileKey) : null;
+            if (left == null) {
+                left = ((Number) Files.getAttribute(path, "unix:nlink")).intValue();
+            }
+            left--;
+            if (fileKey != null) {
+                links.put(fileKey, left);
+            }
+            return left > 0 ? 0 : attrs.size();
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException ex) {
+            //The link count is unknown on this file system
+            return f.length();
+        }
+    }
+
+    private void finish() {
+        phase = Phase.DONE;
+        pendingVersions.clear();
+        pendingIndexes.clear();
+        pendingFiles.clear();
+        links.clear();
+        report.setDuration(System.currentTimeMillis() - start);
+        console.print("Garbage collection " + (dryRun ? "found " : "deleted ") + report.getFiles() + " files ("
+                + report.getBytes() + " bytes).");
+    }
+
+    private static String toKey(File relative) {
+        return relative.getPath().replace(File.separatorChar, '/');
+    }
+
+    private static final class Entry {
+        private final File file;
+        private final boolean visited;
+
+        Entry(File file, boolean visited) {
+            this.file = file;
+            this.visited = visited;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package kml.game.download;
+
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class GarbageReport {
+    private final boolean dryRun;
+    private final Map<String, long[]> areas = new LinkedHashMap<>();
+    private int versionsScanned, filesScanned, failedDeletions;
+    private String skipped;
+    private long durationMillis;
+
+    GarbageReport(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    void reclaim(String area, long bytes) {
+        long[] a = areas.get(area);
+        if (a == null) {
+            a = new long[2];
+            areas.put(area, a);
+        }
+        a[0]++;
+        a[1] += bytes;
+    }
+
+    void versionScanned() {
+        versionsScanned++;
+    }
+
+    void fileScanned() {
+        filesScanned++;
+    }
+
+    void deletionFailed() {
+        failedDeletions++;
+    }
+
+    void skip(String reason) {
+        skipped = reason;
+    }
+
+    void setDuration(long millis) {
+        durationMillis = millis;
+    }
+
+    /**
+     * Checks if files were only reported and not deleted
+     * @return A boolean with the result
+     */
+    public final boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * Returns the amount of unreferenced files
+     * @return The file count
+     */
+    public final long getFiles() {
+        long files = 0;
+        for (long[] a : areas.values()) {
+            files += a[0];
+        }
+        return files;
+    }
+
+    /**
+     * Returns the size of the unreferenced files
+     * @return The reclaimable bytes
+     */
+    public final long getBytes() {
+        long bytes = 0;
+        for (long[] a : areas.values()) {
+            bytes += a[1];
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns why part of the collection was skipped
+     * @return The reason or null if nothing was skipped
+     */
+    public final String getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Converts the report to JSON
+     * @return The json conversion of the report
+     */
+    public final JSONObject toJSON() {
+        JSONObject o = new JSONObject();
+        o.put("dryRun", dryRun);
+        o.put("versionsScanned", versionsScanned);
+        o.put("filesScanned", filesScanned);
+        o.put("files", getFiles());
+        o.put("bytes", getBytes());
+        o.put("failedDeletions", failedDeletions);
+        o.put("durationMillis", durationMillis);
+        JSONObject byArea = new JSONObject();
+        for (Map.Entry<String, long[]> e : areas.entrySet()) {
+            JSONObject a = new JSONObject();
+            a.put("files", e.getValue()[0]);
+            a.put("bytes", e.getValue()[1]);
+            byArea.put(e.getKey(), a);
+        }
+        o.put("areas", byArea);
+        if (skipped != null) {
+            o.put("skipped", skipped);
+        }
+        return o;
+    }
+}
@@ -0,0 +1,116 @@
+package kml.game.download;
+
+import kml.exceptions.HttpStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class HttpTransport {
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 20000;
+
+    /**
+     * Configures the JVM wide HTTP keep-alive pool so idle connections can be reused by the download workers.
+     * It must be called before the first HTTP connection is opened to take effect.
+     * @param maxConnectionsPerHost The maximum number of idle connections kept per host
+     */
+    public static void configureKeepAlive(int maxConnectionsPerHost) {
+        System.setProperty("http.keepAlive", "true");
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(maxConnectionsPerHost));
+        }
+    }
+
+    /**
+     * Opens a connection ready to be read
+     * @param url The source URL
+     * @param offset The amount of bytes to skip from the start of the resource or 0 to fetch all of it
+     * @return The opened connection
+     * @throws HttpStatusException If the server answered with an error code
+     * @throws IOException If the connection failed
+     */
+    public URLConnection open(URL url, long offset) throws IOException {
+        URLConnection con = prepare(url);
+        if (con instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) con;
+            if (offset > 0) {
+                http.setRequestProperty("Range", "bytes=" + offset + '-');
+            }
+            int code = http.getResponseCode();
+            if (code >= 400) {
+                discard(http);
+                throw new HttpStatusException("Server returned HTTP response code: " + code + " for URL: " + url, code);
+            }
+        }
+        return con;
+    }
+
+    /**
+     * Asks the server for the size of a resource without transferring it
+     * @param url The source URL
+     * @return The size of the resource or -1 if unknown
+     * @throws IOException If the connection failed
+     */
+    public long getContentLength(URL url) throws IOException {
+        URLConnection con = prepare(url);
+        if (con instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) con;
+            http.setRequestMethod("HEAD");
+            int code = http.getResponseCode();
+            if (code >= 400) {
+                discard(http);
+                throw new HttpStatusException("Server returned HTTP response code: " + code + " for URL: " + url, code);
+            }
+            long length = http.getContentLengthLong();
+            http.getInputStream().close();
+            return length;
+        }
+        long length = con.getContentLengthLong();
+        con.getInputStream().close();
+        return length;
+    }
+
+    /**
+     * Creates a connection with the transport defaults
+     * @param url The source URL
+     * @return The connection, not connected yet
+     * @throws IOException If the connection could not be created
+     */
+    private URLConnection prepare(URL url) throws IOException {
+        URLConnection con = url.openConnection();
+        con.setConnectTimeout(CONNECT_TIMEOUT);
+        con.setReadTimeout(READ_TIMEOUT);
+        con.setUseCaches(false);
+        if (con instanceof HttpURLConnection) {
+            con.setRequestProperty("Connection", "keep-alive");
+        }
+        return con;
+    }
+
+    /**
+     * Reads and closes the error body of a response so the underlying socket goes back to the keep-alive pool
+     * @param http The failed connection
+     */
+    private static void discard(HttpURLConnection http) {
+        InputStream err = http.getErrorStream();
+        if (err == null) {
+            return;
+        }
+        try (InputStream in = err) {
+            byte[] buffer = new byte[4096];
+            while (in.read(buffer) != -1) {
+                //Drain the response
+            }
+        } catch (IOException ignored) {
+            //The connection will not be reused
+        }
+    }
+}
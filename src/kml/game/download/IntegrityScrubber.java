@@ -0,0 +1,256 @@
+package kml.game.download;
+
+import kml.Console;
+import kml.Kernel;
+import kml.game.version.Version;
+import kml.game.version.asset.AssetIndex;
+import kml.game.version.asset.AssetIndexReader;
+import kml.game.version.library.Library;
+import kml.utils.Hashing;
+import kml.utils.Utils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class IntegrityScrubber implements Runnable {
+    private static final File STATE_FILE = new File(Kernel.APPLICATION_CACHE, "scrubber.json");
+    private static final long IDLE_CHECK_INTERVAL = 5000;
+    private static final long PASS_INTERVAL = 6 * 60 * 60 * 1000L;
+    private static final int SAVE_INTERVAL = 100;
+    private final Kernel kernel;
+    private final Console console;
+    private volatile Thread thread;
+    private volatile int position;
+
+    public IntegrityScrubber(Kernel k) {
+        kernel = k;
+        console = k.getConsole();
+    }
+
+    /**
+     * Starts verifying the installed files in the background if a rate has been configured
+     */
+    public final synchronized void start() {
+        if (thread != null || kernel.getSettings().getScrubberRate() <= 0) {
+            return;
+        }
+        thread = new Thread(this, "IntegrityScrubber");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops the scrubber saving its position so the next session continues where this one stopped
+     */
+    public final synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        thread = null;
+        saveState();
+    }
+
+    @Override
+    public void run() {
+        loadState();
+        try {
+            while (thread == Thread.currentThread()) {
+                waitUntilIdle();
+                List<Downloadable> files = collect();
+                if (position >= files.size()) {
+                    position = 0;
+                }
+                console.print("Integrity scrubber verifying " + (files.size() - position) + " files.");
+                int corrupted = 0;
+                while (position < files.size()) {
+                    waitUntilIdle();
+                    if (!verify(files.get(position))) {
+                        corrupted++;
+                    }
+                    if (++position % SAVE_INTERVAL == 0) {
+                        saveState();
+                    }
+                }
+                position = 0;
+                saveState();
+                kernel.getVerifiedFileIndex().save();
+                console.print("Integrity scrubber finished a pass. " + corrupted + " corrupted files found.");
+                Thread.sleep(PASS_INTERVAL);
+            }
+        } catch (InterruptedException ex) {
+            console.print("Integrity scrubber stopped.");
+        }
+    }
+
+    /**
+     * Blocks while files are being downloaded or the game is running
+     * @throws InterruptedException If the scrubber has been stopped
+     */
+    private void waitUntilIdle() throws InterruptedException {
+        while (kernel.getDownloader().isDownloading() || kernel.getGameLauncher().isRunning()) {
+            Thread.sleep(IDLE_CHECK_INTERVAL);
+        }
+    }
+
+    /**
+     * Hashes a file and queues it for download if it does not match. The time spent is stretched to
+     * respect the configured rate.
+     * @param d The file to be verified
+     * @return A boolean that indicates if the file is valid or missing
+     * @throws InterruptedException If the scrubber has been stopped
+     */
+    private boolean verify(Downloadable d) throws InterruptedException {
+        File file = new File(Kernel.APPLICATION_WORKING_DIR, d.getRelativePath().getPath());
+        if (!file.isFile()) {
+            //Missing files are found by the download plan
+            return true;
+        }
+        long start = System.currentTimeMillis();
+        long length = file.length();
+        boolean valid = d.getSize() <= 0 || length == d.getSize();
+        if (valid && !Hashing.matches(file, d.getHash(), "SHA-1")) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (!isReadable(file)) {
+                //Files in use cannot be told apart from corrupted ones
+                console.print("Integrity scrubber could not read " + d.getRelativePath());
+                return true;
+            }
+            valid = false;
+        }
+        VerifiedFileIndex fileIndex = kernel.getVerifiedFileIndex();
+        if (valid) {
+            fileIndex.record(file, d.getHash());
+        } else {
+            console.print("Integrity scrubber found corrupted file " + d.getRelativePath() + ". Queued for download.");
+            fileIndex.invalidate(file);
+            //Hard linked store objects share the corrupted data
+            fileIndex.invalidate(kernel.getContentStore().getObject(d.getHash()));
+            kernel.getDownloader().queueRepair(d);
+        }
+        long rate = kernel.getSettings().getScrubberRate() * 1024L;
+        long wait = length * 1000 / Math.max(1, rate) - (System.currentTimeMillis() - start);
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+        return valid;
+    }
+
+    /**
+     * Collects the files with a known hash of every installed version sorted by path so a pass can be resumed
+     * @return The files to be verified
+     * @throws InterruptedException If the scrubber has been stopped
+     */
+    private List<Downloadable> collect() throws InterruptedException {
+        final Map<String, Downloadable> files = new TreeMap<>();
+        Set<String> indexes = new HashSet<>();
+        File[] versions = new File(Kernel.APPLICATION_WORKING_DIR, "versions").listFiles();
+        if (versions == null) {
+            return new ArrayList<>();
+        }
+        for (File dir : versions) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            File json = new File(dir, dir.getName() + ".json");
+            if (!json.isFile()) {
+                continue;
+            }
+            Version v;
+            try {
+                v = new Version(json.toURI().toURL().toString(), kernel);
+            } catch (Exception ex) {
+                console.print("Integrity scrubber skipped version " + dir.getName() + ". Failed to read it.");
+                continue;
+            }
+            Downloadable client = v.getDownloads().get("client");
+            if (client != null && client.getHash() != null) {
+                files.put(v.getRelativeJar().getPath(), new Downloadable(client.getURL(), client.getSize(),
+                        v.getRelativeJar(), client.getHash(), null));
+            }
+            for (Library lib : v.getLibraries()) {
+                if (lib.hasArtifactDownload()) {
+                    add(files, lib.getArtifactDownload());
+                }
+                if (lib.hasClassifierDownload()) {
+                    add(files, lib.getClassifierDownload());
+                }
+            }
+            AssetIndex index = v.getAssetIndex();
+            if (!indexes.add(index.getID())) {
+                continue;
+            }
+            File indexJSON = new File(Kernel.APPLICATION_WORKING_DIR, "assets" + File.separator + "indexes" + File.separator + index.getID() + ".json");
+            if (!indexJSON.isFile()) {
+                continue;
+            }
+            final AssetPlan assets = new AssetPlan((int) (indexJSON.length() / 100));
+            try {
+                new AssetIndexReader(indexJSON).read(new AssetIndexReader.Handler() {
+                    @Override
+                    public void asset(String name, String hash, long size) {
+                        try {
+                            assets.add(hash, size, name);
+                        } catch (IllegalArgumentException ex) {
+                            //Invalid entries are reported by the downloader
+                        }
+                    }
+                });
+            } catch (IOException | JSONException ex) {
+                console.print("Integrity scrubber skipped asset index " + index.getID() + ". Failed to read it.");
+                continue;
+            }
+            for (int i = 0; i < assets.size(); i++) {
+                add(files, assets.toDownloadable(i));
+            }
+        }
+        return new ArrayList<>(files.values());
+    }
+
+    private static boolean isReadable(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private static void add(Map<String, Downloadable> files, Downloadable d) {
+        if (d.getHash() != null && d.hasURL()) {
+            files.put(d.getRelativePath().getPath(), d);
+        }
+    }
+
+    private void loadState() {
+        if (!STATE_FILE.isFile()) {
+            return;
+        }
+        try {
+            JSONObject state = new JSONObject(new String(Files.readAllBytes(STATE_FILE.toPath()), StandardCharsets.UTF_8));
+            position = Math.max(0, state.optInt("position"));
+        } catch (IOException | JSONException ex) {
+            console.print("Failed to load integrity scrubber state.");
+        }
+    }
+
+    private synchronized void saveState() {
+        JSONObject state = new JSONObject();
+        state.put("position", position);
+        Utils.writeToFile(state.toString(), STATE_FILE);
+    }
+}
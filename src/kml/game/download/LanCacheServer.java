@@ -0,0 +1,336 @@
+package kml.game.download;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import kml.Console;
+import kml.Kernel;
+import kml.exceptions.HttpStatusException;
+import kml.utils.Utils;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class LanCacheServer {
+    public static final int DEFAULT_PORT = 25580;
+    private static final String RESOURCES = "/resources/";
+    private static final String LIBRARIES = "/libraries/";
+    private static final String VERSIONS = "/versions/";
+    private static final String OBJECTS = "/objects/";
+    private static final int THREADS = 16;
+    private final Kernel kernel;
+    private final Console console;
+    private final HttpTransport transport = new HttpTransport();
+    private final Map<String, FutureTask<File>> fetches = new ConcurrentHashMap<>();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public LanCacheServer(Kernel k) {
+        kernel = k;
+        console = k.getConsole();
+    }
+
+    /**
+     * Returns the mirrors a launcher should use to download through a cache server
+     * @param host The host and port of the cache server
+     * @return A map of origin base URLs to the cache server base URLs
+     */
+    public static Map<String, List<String>> getMirrors(String host) {
+        Map<String, List<String>> mirrors = new LinkedHashMap<>();
+        String base = "http://" + host;
+        mirrors.put(AssetPlan.RESOURCES_URL, Collections.singletonList(base + RESOURCES));
+        mirrors.put(MirrorSelector.LIBRARIES_URL, Collections.singletonList(base + LIBRARIES));
+        mirrors.put(MirrorSelector.VERSIONS_URL + "versions/", Collections.singletonList(base + VERSIONS));
+        //Client jars of current versions are addressed by their SHA-1 on both hosts
+        mirrors.put(MirrorSelector.OBJECTS_URL, Collections.singletonList(base + OBJECTS));
+        mirrors.put(MirrorSelector.LEGACY_OBJECTS_URL, Collections.singletonList(base + OBJECTS));
+        return mirrors;
+    }
+
+    /**
+     * Starts serving the local files
+     * @param address The local address to listen on or an empty String to use the LAN address of this machine
+     * @param port The port to listen on
+     * @throws IOException If the address could not be found or the port could not be bound
+     */
+    public final synchronized void start(String address, int port) throws IOException {
+        if (server != null) {
+            return;
+        }
+        InetAddress bind = address.isEmpty() ? getLanAddress() : InetAddress.getByName(address);
+        if (bind == null) {
+            throw new IOException("This machine has no LAN address to listen on.");
+        }
+        server = HttpServer.create(new InetSocketAddress(bind, port), 0);
+        executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "LanCache-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext(RESOURCES, new CacheHandler(RESOURCES, "assets" + File.separator + "objects", AssetPlan.RESOURCES_URL, true));
+        server.createContext(LIBRARIES, new CacheHandler(LIBRARIES, "libraries", MirrorSelector.LIBRARIES_URL, false));
+        server.createContext(VERSIONS, new CacheHandler(VERSIONS, "versions", MirrorSelector.VERSIONS_URL + "versions/", false));
+        server.createContext(OBJECTS, new ObjectHandler());
+        server.start();
+        console.print("LAN cache server listening on " + bind.getHostAddress() + ':' + server.getAddress().getPort());
+    }
+
+    /**
+     * Finds the private network address of this machine
+     * @return The address or null if the machine is not connected to a private network
+     * @throws SocketException If the network interfaces could not be listed
+     */
+    private static InetAddress getLanAddress() throws SocketException {
+        Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+        while (interfaces != null && interfaces.hasMoreElements()) {
+            NetworkInterface ni = interfaces.nextElement();
+            if (!ni.isUp() || ni.isLoopback()) {
+                continue;
+            }
+            for (InetAddress a : Collections.list(ni.getInetAddresses())) {
+                if (a instanceof Inet4Address && a.isSiteLocalAddress()) {
+                    return a;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if a client belongs to the local network
+     * @param a The address of the client
+     * @return A boolean with the result
+     */
+    private static boolean isLanAddress(InetAddress a) {
+        if (a.isLoopbackAddress() || a.isSiteLocalAddress() || a.isLinkLocalAddress()) {
+            return true;
+        }
+        //IPv6 unique local addresses, fc00 to fdff
+        return a instanceof Inet6Address && (a.getAddress()[0] & 0xFE) == 0xFC;
+    }
+
+    /**
+     * Stops the server
+     */
+    public final synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+        console.print("LAN cache server stopped.");
+    }
+
+    /**
+     * Returns the port the server is listening on
+     * @return The port or -1 if the server is stopped
+     */
+    public final synchronized int getPort() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    /**
+     * Returns a local file fetching it from the upstream host first if it is not cached or it does not match
+     * its SHA-1. Concurrent requests for the same file share a single upstream fetch.
+     * @param file The local file
+     * @param upstream The upstream URL of the file
+     * @param sha1 The expected SHA-1
+     * @return The local file
+     * @throws IOException If the file could not be fetched
+     */
+    private File readThrough(final File file, final URL upstream, final String sha1) throws IOException {
+        if (kernel.getVerifiedFileIndex().verify(file, sha1, -1)) {
+            return file;
+        }
+        FutureTask<File> fetch = new FutureTask<>(new Callable<File>() {
+            @Override
+            public File call() throws IOException {
+                fetch(file, upstream, sha1);
+                return file;
+            }
+        });
+        FutureTask<File> running = fetches.putIfAbsent(file.getPath(), fetch);
+        if (running == null) {
+            running = fetch;
+            try {
+                fetch.run();
+            } finally {
+                fetches.remove(file.getPath());
+            }
+        }
+        try {
+            return running.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching " + upstream);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    private void fetch(File file, URL upstream, String sha1) throws IOException {
+        console.print("LAN cache fetching " + upstream);
+        file.getParentFile().mkdirs();
+        File part = new File(file.getPath() + ".lan.part");
+        URLConnection con = transport.open(upstream, 0);
+        MessageDigest digest = Utils.getDigest("SHA-1");
+        try (InputStream in = con.getInputStream(); OutputStream out = new FileOutputStream(part)) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                digest.update(buffer, 0, read);
+            }
+        }
+        String hash = Utils.toHex(digest.digest());
+        if (!sha1.equalsIgnoreCase(hash)) {
+            part.delete();
+            throw new IOException("Checksum mismatch for " + upstream);
+        }
+        try {
+            Files.move(part.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        kernel.getVerifiedFileIndex().record(file, hash);
+    }
+
+    /**
+     * Serves a folder of the working directory falling back to its upstream host
+     */
+    private class CacheHandler implements HttpHandler {
+        private final String context;
+        private final File root;
+        private final String upstream;
+        private final boolean contentAddressed;
+
+        CacheHandler(String context, String folder, String upstream, boolean contentAddressed) {
+            this.context = context;
+            this.root = new File(Kernel.APPLICATION_WORKING_DIR, folder);
+            this.upstream = upstream;
+            this.contentAddressed = contentAddressed;
+        }
+
+        @Override
+        public void handle(HttpExchange ex) throws IOException {
+            try {
+                if (!isLanAddress(ex.getRemoteAddress().getAddress())) {
+                    send(ex, 403);
+                    return;
+                }
+                String method = ex.getRequestMethod();
+                if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                    send(ex, 405);
+                    return;
+                }
+                String path = ex.getRequestURI().getPath().substring(context.length());
+                File file = getFile(path);
+                if (file == null) {
+                    send(ex, 404);
+                    return;
+                }
+                String sha1 = getHash(path, file);
+                if (sha1 == null) {
+                    //Files are only served when their content is known to be valid
+                    send(ex, 404);
+                    return;
+                }
+                try {
+                    file = readThrough(file, new URL(upstream + path), sha1);
+                } catch (HttpStatusException e) {
+                    send(ex, e.getStatusCode());
+                    return;
+                } catch (IOException e) {
+                    console.print("LAN cache failed to fetch " + path);
+                    e.printStackTrace(console.getWriter());
+                    send(ex, 502);
+                    return;
+                }
+                ex.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                if ("HEAD".equals(method)) {
+                    ex.getResponseHeaders().set("Content-Length", String.valueOf(file.length()));
+                    ex.sendResponseHeaders(200, -1);
+                    return;
+                }
+                ex.sendResponseHeaders(200, file.length());
+                try (OutputStream out = ex.getResponseBody()) {
+                    Files.copy(file.toPath(), out);
+                }
+            } finally {
+                ex.close();
+            }
+        }
+
+        /**
+         * Resolves a request path to the local file
+         * @param path The path relative to the context
+         * @return The local file or null if the path is not valid
+         * @throws IOException If the path could not be resolved
+         */
+        File getFile(String path) throws IOException {
+            File file = new File(root, path.replace('/', File.separatorChar));
+            if (path.isEmpty() || path.contains("..") || !file.getCanonicalPath().startsWith(root.getCanonicalPath() + File.separator)) {
+                return null;
+            }
+            return file;
+        }
+
+        /**
+         * Returns the expected SHA-1 of a requested file, told by its path or by its last verification
+         * @param path The path relative to the context
+         * @param file The local file
+         * @return The SHA-1 or null if it is unknown
+         */
+        String getHash(String path, File file) {
+            return contentAddressed ? file.getName() : kernel.getVerifiedFileIndex().getHash(file);
+        }
+
+        private void send(HttpExchange ex, int code) throws IOException {
+            ex.sendResponseHeaders(code, -1);
+        }
+    }
+
+    /**
+     * Serves files addressed by their SHA-1 (/objects/&lt;sha1&gt;/client.jar) from the content store
+     */
+    private final class ObjectHandler extends CacheHandler {
+        ObjectHandler() {
+            super(OBJECTS, "", MirrorSelector.OBJECTS_URL, true);
+        }
+
+        @Override
+        File getFile(String path) {
+            if (!path.matches("[0-9a-fA-F]{40}/[^/]+")) {
+                return null;
+            }
+            return kernel.getContentStore().getObject(path.substring(0, 40));
+        }
+
+        @Override
+        String getHash(String path, File file) {
+            return path.substring(0, 40);
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package kml.game.download;
+
+import kml.Console;
+import kml.exceptions.CircuitOpenException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class MirrorSelector {
+    public static final String LIBRARIES_URL = "https://libraries.minecraft.net/";
+    public static final String VERSIONS_URL = "https://s3.amazonaws.com/Minecraft.Download/";
+    public static final String OBJECTS_URL = "https://piston-data.mojang.com/v1/objects/";
+    public static final String LEGACY_OBJECTS_URL = "https://launcher.mojang.com/v1/objects/";
+    //Latency assumed for a host that has not been measured yet
+    private static final long UNKNOWN_LATENCY = TimeUnit.MILLISECONDS.toNanos(500);
+    //Latency added to the score of a host each time it fails
+    private static final long FAILURE_PENALTY = TimeUnit.SECONDS.toNanos(2);
+    private static final int CORRUPT_FAILURES = 5;
+    private static final long DEFAULT_HEDGE_DELAY = 1000;
+    private static final long MIN_HEDGE_DELAY = 50;
+    private static final long MAX_HEDGE_DELAY = 5000;
+    private static final double HEDGE_PERCENTILE = 0.95;
+    private static final int MIN_HEDGE_SAMPLES = 16;
+    private static final int PROBE_TIMEOUT = 3000;
+    private static final double SMOOTHING = 0.3;
+    private final Console console;
+    private final Map<String, List<String>> mirrors = new LinkedHashMap<>();
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final long[] samples = new long[256];
+    private int sampleCount, sampleNext;
+    private final ExecutorService hedgePool = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Downloader-hedge");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    public MirrorSelector(Console c) {
+        console = c;
+    }
+
+    /**
+     * Stops the threads of the hedged requests and the probes
+     */
+    public final void shutdown() {
+        hedgePool.shutdownNow();
+    }
+
+    /**
+     * Replaces the configured mirrors
+     * @param configured A map of origin base URLs to the base URLs of their mirrors
+     */
+    public final synchronized void configure(Map<String, List<String>> configured) {
+        mirrors.clear();
+        for (Map.Entry<String, List<String>> e : configured.entrySet()) {
+            if (!e.getValue().isEmpty()) {
+                mirrors.put(e.getKey(), new ArrayList<>(e.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Checks if any mirror has been configured
+     * @return A boolean with the result
+     */
+    public final synchronized boolean hasMirrors() {
+        return !mirrors.isEmpty();
+    }
+
+    /**
+     * Measures the latency of every configured mirror and origin in parallel so they can be ranked
+     */
+    public final void probe() {
+        final Set<String> bases = new LinkedHashSet<>();
+        synchronized (this) {
+            for (Map.Entry<String, List<String>> e : mirrors.entrySet()) {
+                bases.add(e.getKey());
+                bases.addAll(e.getValue());
+            }
+        }
+        if (bases.isEmpty()) {
+            return;
+        }
+        console.print("Probing " + bases.size() + " download hosts...");
+        List<Future<?>> probes = new ArrayList<>();
+        for (final String base : bases) {
+            probes.add(hedgePool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    if (probe(base)) {
+                        long latency = System.nanoTime() - start;
+                        getHost(base).success(latency);
+                        console.print("Host " + base + " answered in " + TimeUnit.NANOSECONDS.toMillis(latency) + "ms");
+                    } else {
+                        getHost(base).failure();
+                        console.print("Host " + base + " is not reachable.");
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : probes) {
+            try {
+                f.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ex) {
+                ex.getCause().printStackTrace(console.getWriter());
+            }
+        }
+    }
+
+    /**
+     * Returns every location a resource can be fetched from, best ranked first
+     * @param url The original URL of the resource
+     * @return The candidate URLs
+     */
+    public final List<URL> getCandidates(URL url) {
+        String original = url.toString();
+        List<String> bases = new ArrayList<>();
+        String path = null;
+        synchronized (this) {
+            for (Map.Entry<String, List<String>> e : mirrors.entrySet()) {
+                if (original.startsWith(e.getKey())) {
+                    path = original.substring(e.getKey().length());
+                    bases.addAll(e.getValue());
+                    bases.add(e.getKey());
+                    break;
+                }
+            }
+        }
+        if (path == null) {
+            return Collections.singletonList(url);
+        }
+        Collections.sort(bases, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Long.compare(getHost(a).getScore(), getHost(b).getScore());
+            }
+        });
+        List<URL> candidates = new ArrayList<>(bases.size());
+        for (String base : bases) {
+            try {
+                candidates.add(new URL(base + path));
+            } catch (MalformedURLException ex) {
+                console.print("Invalid mirror " + base);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Opens a resource from the best ranked location. If it has not answered when the usual latency has been
+     * exceeded the request is hedged to the next location and the first response wins. Failed locations are
+     * skipped in rank order.
+     * @param transport The transport used to open the connections
+     * @param url The original URL of the resource
+     * @param offset The amount of bytes to skip from the start of the resource or 0 to fetch all of it
+     * @return The opened connection
+     * @throws IOException If every location failed
+     */
+    public final URLConnection open(final HttpTransport transport, URL url, final long offset) throws IOException {
+        List<URL> candidates = getCandidates(url);
+        if (candidates.size() == 1) {
+            return timedOpen(transport, candidates.get(0), offset);
+        }
+        final AtomicBoolean settled = new AtomicBoolean();
+        CompletionService<URLConnection> attempts = new ExecutorCompletionService<>(hedgePool);
+        List<Future<URLConnection>> futures = new ArrayList<>();
+        IOException last = null;
+        int next = 0, pending = 0;
+        try {
+            futures.add(attempts.submit(createAttempt(transport, candidates.get(next++), offset, settled)));
+            pending++;
+            while (pending > 0) {
+                Future<URLConnection> done;
+                if (pending == 1 && next < candidates.size()) {
+                    done = attempts.poll(getHedgeDelay(), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        console.print("Hedging request for " + url + " to " + candidates.get(next));
+                        futures.add(attempts.submit(createAttempt(transport, candidates.get(next++), offset, settled)));
+                        pending++;
+                        continue;
+                    }
+                } else {
+                    done = attempts.take();
+                }
+                pending--;
+                try {
+                    return done.get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IOException) {
+                        last = (IOException) cause;
+                    } else {
+                        last = new IOException(cause);
+                    }
+                    if (settled.get()) {
+                        continue;
+                    }
+                    if (pending == 0 && next < candidates.size()) {
+                        futures.add(attempts.submit(createAttempt(transport, candidates.get(next++), offset, settled)));
+                        pending++;
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            settled.set(true);
+            for (Future<URLConnection> f : futures) {
+                f.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while opening " + url);
+        }
+        throw last;
+    }
+
+    /**
+     * Creates an attempt that competes to provide the connection of a request
+     * @param transport The transport used to open the connection
+     * @param url The location to be tried
+     * @param offset The offset of the request
+     * @param settled Flag shared by the attempts of the same request, set once one of them wins
+     * @return The attempt
+     */
+    private Callable<URLConnection> createAttempt(final HttpTransport transport, final URL url, final long offset, final AtomicBoolean settled) {
+        return new Callable<URLConnection>() {
+            @Override
+            public URLConnection call() throws IOException {
+                URLConnection con = timedOpen(transport, url, offset);
+                if (!settled.compareAndSet(false, true)) {
+                    //Another location already answered
+                    if (con instanceof HttpURLConnection) {
+                        ((HttpURLConnection) con).disconnect();
+                    } else {
+                        con.getInputStream().close();
+                    }
+                    throw new IOException("Request already served by another host");
+                }
+                return con;
+            }
+        };
+    }
+
+    /**
+     * Opens a connection recording the latency of its host
+     * @param transport The transport used to open the connection
+     * @param url The target location
+     * @param offset The offset of the request
+     * @return The opened connection
+     * @throws IOException If the connection failed
+     */
+    private URLConnection timedOpen(HttpTransport transport, URL url, long offset) throws IOException {
+        CircuitBreaker breaker = getCircuitBreaker(url);
+        if (!breaker.allowRequest()) {
+            throw new CircuitOpenException("Requests to " + url.getHost() + " are paused after repeated failures");
+        }
+        String base = getBase(url);
+        long start = System.nanoTime();
+        try {
+            URLConnection con = transport.open(url, offset);
+            long latency = System.nanoTime() - start;
+            if (base != null) {
+                getHost(base).success(latency);
+            }
+            addSample(latency);
+            breaker.recordSuccess();
+            return con;
+        } catch (IOException ex) {
+            if (RetryPolicy.isHostFailure(RetryPolicy.classify(ex))) {
+                if (base != null) {
+                    getHost(base).failure();
+                }
+                reportFailure(url);
+            } else {
+                //The host answered, the resource is what failed
+                breaker.recordSuccess();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Records a failure of a host that happened after its connection was opened, like a reset while reading
+     * @param url The location that failed
+     */
+    public final void reportFailure(URL url) {
+        CircuitBreaker breaker = getCircuitBreaker(url);
+        if (breaker.recordFailure()) {
+            console.print("Too many failures from " + url.getHost() + ". Pausing its requests for "
+                    + TimeUnit.MILLISECONDS.toSeconds(breaker.getOpenTime()) + " seconds.");
+        }
+    }
+
+    /**
+     * Returns how long a resource has to wait until one of its locations accepts requests again
+     * @param url The original URL of the resource
+     * @return The time in milliseconds, 0 if a location accepts requests or -1 if every location keeps failing
+     */
+    public final long getPausedTime(URL url) {
+        long paused = -1;
+        for (URL candidate : getCandidates(url)) {
+            long time = getCircuitBreaker(candidate).getPausedTime();
+            if (time == 0) {
+                return 0;
+            }
+            if (time > 0 && (paused == -1 || time < paused)) {
+                paused = time;
+            }
+        }
+        return paused;
+    }
+
+    /**
+     * Records that a location served data that did not match its hash. The location is ranked below the others
+     * so the retry is served by the next ranked location.
+     * @param url The location that served the data
+     */
+    public final void reportCorrupt(URL url) {
+        String base = getBase(url);
+        if (base != null) {
+            getHost(base).corrupt();
+        }
+        reportFailure(url);
+    }
+
+    private CircuitBreaker getCircuitBreaker(URL url) {
+        String key = url.getProtocol() + "://" + url.getAuthority();
+        CircuitBreaker breaker = breakers.get(key);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker();
+            breaker = breakers.putIfAbsent(key, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Returns the configured base a location belongs to
+     * @param url The location
+     * @return The base URL or null if it is not a configured origin or mirror
+     */
+    private synchronized String getBase(URL url) {
+        String location = url.toString();
+        for (Map.Entry<String, List<String>> e : mirrors.entrySet()) {
+            if (location.startsWith(e.getKey())) {
+                return e.getKey();
+            }
+            for (String mirror : e.getValue()) {
+                if (location.startsWith(mirror)) {
+                    return mirror;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the time after which a request is hedged, the configured percentile of the recent latencies
+     * @return The hedge delay in milliseconds
+     */
+    private long getHedgeDelay() {
+        long[] sorted;
+        synchronized (samples) {
+            if (sampleCount < MIN_HEDGE_SAMPLES) {
+                return DEFAULT_HEDGE_DELAY;
+            }
+            sorted = Arrays.copyOf(samples, sampleCount);
+        }
+        Arrays.sort(sorted);
+        long delay = TimeUnit.NANOSECONDS.toMillis(sorted[(int) Math.ceil(HEDGE_PERCENTILE * sorted.length) - 1]);
+        return Math.max(MIN_HEDGE_DELAY, Math.min(MAX_HEDGE_DELAY, delay));
+    }
+
+    private void addSample(long latency) {
+        synchronized (samples) {
+            samples[sampleNext] = latency;
+            sampleNext = (sampleNext + 1) % samples.length;
+            sampleCount = Math.min(sampleCount + 1, samples.length);
+        }
+    }
+
+    private Host getHost(String base) {
+        Host host = hosts.get(base);
+        if (host == null) {
+            Host created = new Host();
+            host = hosts.putIfAbsent(base, created);
+            if (host == null) {
+                host = created;
+            }
+        }
+        return host;
+    }
+
+    /**
+     * Checks if a base location is reachable. Any HTTP answer counts since the base itself may not be a resource.
+     * @param base The base location
+     * @return A boolean that indicates if the location answered
+     */
+    private static boolean probe(String base) {
+        try {
+            URL url = new URL(base);
+            if ("file".equals(url.getProtocol())) {
+                return new File(url.toURI()).isDirectory();
+            }
+            URLConnection con = url.openConnection();
+            con.setConnectTimeout(PROBE_TIMEOUT);
+            con.setReadTimeout(PROBE_TIMEOUT);
+            if (con instanceof HttpURLConnection) {
+                HttpURLConnection http = (HttpURLConnection) con;
+                http.setRequestMethod("HEAD");
+                http.getResponseCode();
+                http.disconnect();
+            } else {
+                con.connect();
+            }
+            return true;
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
+    private static final class Host {
+        private long latency = -1;
+        private int failures;
+
+        synchronized void success(long nanos) {
+            latency = latency == -1 ? nanos : (long) (SMOOTHING * nanos + (1 - SMOOTHING) * latency);
+            failures = Math.max(0, failures - 1);
+        }
+
+        synchronized void failure() {
+            failures++;
+        }
+
+        synchronized void corrupt() {
+            failures += CORRUPT_FAILURES;
+        }
+
+        synchronized long getScore() {
+            return (latency == -1 ? UNKNOWN_LATENCY : latency) + failures * FAILURE_PENALTY;
+        }
+    }
+}
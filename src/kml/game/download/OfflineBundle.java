@@ -0,0 +1,281 @@
+package kml.game.download;
+
+import kml.Console;
+import kml.Kernel;
+import kml.game.version.Version;
+import kml.game.version.asset.AssetIndex;
+import kml.game.version.asset.AssetIndexReader;
+import kml.game.version.library.Library;
+import kml.utils.Utils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class OfflineBundle {
+    public static final String MANIFEST = "bundle.json";
+    private static final int BUNDLE_FORMAT = 1;
+    private static final int REPORT_INTERVAL = 500;
+    private final Kernel kernel;
+    private final Console console;
+
+    public OfflineBundle(Kernel k) {
+        kernel = k;
+        console = k.getConsole();
+    }
+
+    /**
+     * Writes every file a version needs to a single archive. The manifest is the first entry so the archive
+     * can be imported with one sequential read.
+     * @param v The version to be exported, it must be fully downloaded
+     * @param archive The output archive
+     * @return The amount of exported files
+     * @throws IOException If a file is missing, invalid or the archive could not be written
+     */
+    public final int exportVersion(Version v, File archive) throws IOException {
+        console.print("Collecting files of version " + v.getID() + "...");
+        Map<String, String> files = collect(v);
+        JSONArray list = new JSONArray();
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            File file = new File(Kernel.APPLICATION_WORKING_DIR, e.getKey());
+            JSONObject f = new JSONObject();
+            f.put("path", e.getKey());
+            f.put("size", file.length());
+            f.put("sha1", e.getValue());
+            list.put(f);
+        }
+        JSONObject manifest = new JSONObject();
+        manifest.put("format", BUNDLE_FORMAT);
+        manifest.put("version", v.getID());
+        manifest.put("created", System.currentTimeMillis());
+        manifest.put("files", list);
+        File parent = archive.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        File part = new File(archive.getPath() + ".part");
+        int count = 0;
+        try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(part), 65536))) {
+            //Jars and most assets are already compressed
+            out.setLevel(Deflater.BEST_SPEED);
+            out.putNextEntry(new ZipEntry(MANIFEST));
+            out.write(manifest.toString().getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+            byte[] buffer = new byte[65536];
+            for (String path : files.keySet()) {
+                out.putNextEntry(new ZipEntry(path));
+                try (InputStream in = new FileInputStream(new File(Kernel.APPLICATION_WORKING_DIR, path))) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+                out.closeEntry();
+                if (++count % REPORT_INTERVAL == 0) {
+                    console.print("Exported " + count + " of " + files.size() + " files.");
+                }
+            }
+        } catch (IOException ex) {
+            part.delete();
+            throw ex;
+        }
+        Files.move(part.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        kernel.getVerifiedFileIndex().save();
+        console.print("Exported " + count + " files of version " + v.getID() + " to " + archive);
+        return count;
+    }
+
+    /**
+     * Installs the files of an archive into the working directory verifying each one while it is written
+     * @param archive The archive created by exportVersion
+     * @return The id of the imported version
+     * @throws IOException If the archive could not be read or holds unexpected or corrupted files
+     */
+    public final String importArchive(File archive) throws IOException {
+        VerifiedFileIndex fileIndex = kernel.getVerifiedFileIndex();
+        ContentStore store = kernel.getContentStore();
+        String version;
+        int count = 0;
+        try (ZipInputStream in = new ZipInputStream(new BufferedInputStream(new FileInputStream(archive), 65536))) {
+            ZipEntry entry = in.getNextEntry();
+            if (entry == null || !MANIFEST.equals(entry.getName())) {
+                throw new IOException("The archive does not begin with a bundle manifest.");
+            }
+            Map<String, JSONObject> expected = new HashMap<>();
+            try {
+                JSONObject manifest = new JSONObject(new String(readEntry(in), StandardCharsets.UTF_8));
+                if (manifest.getInt("format") != BUNDLE_FORMAT) {
+                    throw new IOException("Unsupported bundle format " + manifest.getInt("format"));
+                }
+                version = manifest.getString("version");
+                JSONArray list = manifest.getJSONArray("files");
+                for (int i = 0; i < list.length(); i++) {
+                    JSONObject f = list.getJSONObject(i);
+                    expected.put(f.getString("path"), f);
+                }
+            } catch (JSONException ex) {
+                throw new IOException("Invalid bundle manifest.", ex);
+            }
+            console.print("Importing " + expected.size() + " files of version " + version + "...");
+            byte[] buffer = new byte[65536];
+            String workingDir = Kernel.APPLICATION_WORKING_DIR.getCanonicalPath();
+            while ((entry = in.getNextEntry()) != null) {
+                String path = entry.getName();
+                JSONObject f = expected.remove(path);
+                if (f == null || entry.isDirectory()) {
+                    throw new IOException("Unexpected archive entry " + path);
+                }
+                String sha1 = f.getString("sha1");
+                File target = new File(Kernel.APPLICATION_WORKING_DIR, path.replace('/', File.separatorChar));
+                if (!target.getCanonicalPath().startsWith(workingDir + File.separator)) {
+                    throw new IOException("Archive entry " + path + " points outside the working directory");
+                }
+                if (target.getParentFile() != null) {
+                    target.getParentFile().mkdirs();
+                }
+                File part = new File(target.getPath() + ".part");
+                MessageDigest digest = Utils.getDigest("SHA-1");
+                try (OutputStream out = new FileOutputStream(part)) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                        digest.update(buffer, 0, read);
+                    }
+                }
+                if (!sha1.equalsIgnoreCase(Utils.toHex(digest.digest()))) {
+                    part.delete();
+                    throw new IOException("Checksum mismatch for " + path);
+                }
+                try {
+                    Files.move(part.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                fileIndex.record(target, sha1);
+                if (!path.startsWith("assets/")) {
+                    store.add(target, sha1);
+                }
+                if (++count % REPORT_INTERVAL == 0) {
+                    console.print("Imported " + count + " files.");
+                }
+            }
+            if (!expected.isEmpty()) {
+                throw new IOException("The archive is truncated, " + expected.size() + " files are missing.");
+            }
+        } finally {
+            fileIndex.save();
+        }
+        console.print("Imported " + count + " files of version " + version + '.');
+        return version;
+    }
+
+    /**
+     * Reads the remaining data of the current archive entry
+     * @param in The archive stream
+     * @return The entry data
+     * @throws IOException If the archive could not be read
+     */
+    private static byte[] readEntry(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Collects the files of a version verifying each one
+     * @param v The target version
+     * @return A map of archive paths to the SHA-1 of the files
+     * @throws IOException If a file is missing or invalid
+     */
+    private Map<String, String> collect(Version v) throws IOException {
+        final Map<String, String> files = new LinkedHashMap<>();
+        addFile(files, v.getRelativeJSON(), null, -1);
+        //Versions that inherit from another one also need the JSON of their parent
+        File jar = v.getRelativeJar();
+        File parentJSON = new File(jar.getParentFile(), jar.getName().replace(".jar", ".json"));
+        if (new File(Kernel.APPLICATION_WORKING_DIR, parentJSON.getPath()).isFile()) {
+            addFile(files, parentJSON, null, -1);
+        }
+        Downloadable client = v.getDownloads().get("client");
+        if (client != null) {
+            addFile(files, jar, client.getHash(), client.getSize());
+        } else {
+            addFile(files, jar, null, -1);
+        }
+        for (Library lib : v.getLibraries()) {
+            if (!lib.isCompatible()) {
+                continue;
+            }
+            if (lib.hasArtifactDownload()) {
+                Downloadable a = lib.getArtifactDownload();
+                addFile(files, a.getRelativePath(), a.getHash(), a.getSize());
+            }
+            if (lib.hasClassifierDownload()) {
+                Downloadable c = lib.getClassifierDownload();
+                addFile(files, c.getRelativePath(), c.getHash(), c.getSize());
+            }
+        }
+        AssetIndex index = v.getAssetIndex();
+        File indexJSON = new File("assets" + File.separator + "indexes" + File.separator + index.getID() + ".json");
+        addFile(files, indexJSON, index.getSHA1(), -1);
+        final AssetPlan assets = new AssetPlan(1024);
+        new AssetIndexReader(new File(Kernel.APPLICATION_WORKING_DIR, indexJSON.getPath())).read(new AssetIndexReader.Handler() {
+            @Override
+            public void asset(String name, String hash, long size) {
+                assets.add(hash, size, name);
+            }
+        });
+        for (int i = 0; i < assets.size(); i++) {
+            addFile(files, assets.getRelativePath(i), assets.getHash(i), assets.getSize(i));
+        }
+        return files;
+    }
+
+    /**
+     * Adds a file to the export list
+     * @param files The export list
+     * @param relative The path relative to the working directory
+     * @param sha1 The expected SHA-1 or null if unknown
+     * @param size The expected size or a value lower than 1 if unknown
+     * @throws IOException If the file is missing or invalid
+     */
+    private void addFile(Map<String, String> files, File relative, String sha1, long size) throws IOException {
+        String path = relative.getPath().replace(File.separatorChar, '/');
+        if (files.containsKey(path)) {
+            return;
+        }
+        File file = new File(Kernel.APPLICATION_WORKING_DIR, relative.getPath());
+        if (!file.isFile()) {
+            throw new FileNotFoundException("Missing file " + path + ". Download the version before exporting it.");
+        }
+        if (sha1 == null) {
+            sha1 = Utils.calculateChecksum(file, "SHA-1");
+            if (sha1 == null) {
+                throw new IOException("Failed to read file " + path);
+            }
+        } else if (!kernel.getVerifiedFileIndex().verify(file, sha1, size)) {
+            throw new IOException("Invalid file " + path + ". Download the version again before exporting it.");
+        }
+        files.put(path, sha1);
+    }
+}
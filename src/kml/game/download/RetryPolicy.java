@@ -0,0 +1,121 @@
+package kml.game.download;
+
+import kml.exceptions.CircuitOpenException;
+import kml.exceptions.HttpStatusException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class RetryPolicy {
+    //HttpURLConnection only reports most error codes inside the exception message
+    private static final Pattern STATUS_MESSAGE = Pattern.compile("HTTP response code: (\\d{3})");
+    private final int maxAttempts;
+    private final long baseDelay, maxDelay;
+
+    /**
+     * Creates a retry policy with exponential backoff
+     * @param maxAttempts The maximum amount of attempts of a request
+     * @param baseDelay The delay cap of the first retry in milliseconds, doubled on each retry
+     * @param maxDelay The maximum delay between two attempts in milliseconds
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Classifies the error of a failed request
+     * @param ex The error
+     * @return The type of failure
+     */
+    public static FailureType classify(IOException ex) {
+        if (ex instanceof CircuitOpenException) {
+            return FailureType.CIRCUIT_OPEN;
+        }
+        if (ex instanceof HttpStatusException) {
+            return classify(((HttpStatusException) ex).getStatusCode());
+        }
+        if (ex instanceof FileNotFoundException) {
+            //Thrown by HttpURLConnection on 404 and 410
+            return FailureType.CLIENT_ERROR;
+        }
+        if (ex instanceof SocketTimeoutException) {
+            return FailureType.TIMEOUT;
+        }
+        if (ex.getMessage() != null) {
+            Matcher m = STATUS_MESSAGE.matcher(ex.getMessage());
+            if (m.find()) {
+                return classify(Integer.parseInt(m.group(1)));
+            }
+        }
+        return FailureType.CONNECTION_RESET;
+    }
+
+    private static FailureType classify(int statusCode) {
+        if (statusCode == 408 || statusCode == 429) {
+            return FailureType.THROTTLED;
+        }
+        if (statusCode >= 400 && statusCode < 500) {
+            return FailureType.CLIENT_ERROR;
+        }
+        return FailureType.SERVER_ERROR;
+    }
+
+    /**
+     * Checks if a failure says something about the health of the host rather than about the requested resource
+     * @param type The type of failure
+     * @return A boolean with the result
+     */
+    public static boolean isHostFailure(FailureType type) {
+        switch (type) {
+            case THROTTLED:
+            case SERVER_ERROR:
+            case TIMEOUT:
+            case CONNECTION_RESET:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Checks if a request should be attempted again. Client errors will fail again. Open circuits are not
+     * attempts, the caller waits until the host accepts requests again instead.
+     * @param type The type of the last failure
+     * @param failures The amount of failed attempts so far
+     * @return A boolean with the result
+     */
+    public final boolean shouldRetry(FailureType type, int failures) {
+        if (type == FailureType.CLIENT_ERROR || type == FailureType.CIRCUIT_OPEN) {
+            return false;
+        }
+        return failures < maxAttempts;
+    }
+
+    /**
+     * Returns a random delay between zero and an exponentially growing cap so retries of many files do not
+     * hit a recovering host at the same time. Throttled requests back off twice as fast. Failures that do not
+     * come from the host, like a checksum mismatch, are retried immediately.
+     * @param type The type of the last failure
+     * @param failures The amount of failed attempts so far
+     * @return The delay in milliseconds
+     */
+    public final long getDelay(FailureType type, int failures) {
+        if (!isHostFailure(type)) {
+            return 0;
+        }
+        int exponent = Math.min(30, Math.max(0, failures - 1) + (type == FailureType.THROTTLED ? 1 : 0));
+        long cap = Math.min(maxDelay, baseDelay << exponent);
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+}
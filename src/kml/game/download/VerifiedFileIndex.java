@@ -0,0 +1,164 @@
+package kml.game.download;
+
+import kml.Console;
+import kml.Kernel;
+import kml.utils.Utils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class VerifiedFileIndex {
+    private static final int INDEX_FORMAT = 1;
+    private final Console console;
+    private final File indexFile = new File(Kernel.APPLICATION_CACHE, "verified_files.json");
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    public VerifiedFileIndex(Kernel k) {
+        console = k.getConsole();
+    }
+
+    /**
+     * Loads the index from the launcher cache
+     */
+    public final void load() {
+        entries.clear();
+        dirty = false;
+        if (!indexFile.isFile()) {
+            return;
+        }
+        try {
+            JSONObject root = new JSONObject(new String(Files.readAllBytes(indexFile.toPath()), StandardCharsets.UTF_8));
+            if (!root.has("format") || root.getInt("format") != INDEX_FORMAT) {
+                console.print("Verified file index has an unknown format. It will be rebuilt.");
+                return;
+            }
+            JSONObject files = root.getJSONObject("files");
+            for (String path : files.keySet()) {
+                JSONObject f = files.getJSONObject(path);
+                entries.put(path, new Entry(f.getLong("size"), f.getLong("mtime"), f.getString("sha1")));
+            }
+            console.print("Loaded " + entries.size() + " verified files from the index.");
+        } catch (JSONException | IOException ex) {
+            console.print("Failed to read verified file index. It will be rebuilt.");
+            ex.printStackTrace(console.getWriter());
+            entries.clear();
+        }
+    }
+
+    /**
+     * Saves the index to the launcher cache if it has changed
+     */
+    public final synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        JSONObject files = new JSONObject();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            JSONObject f = new JSONObject();
+            f.put("size", entry.size);
+            f.put("mtime", entry.mtime);
+            f.put("sha1", entry.sha1);
+            files.put(e.getKey(), f);
+        }
+        JSONObject root = new JSONObject();
+        root.put("format", INDEX_FORMAT);
+        root.put("files", files);
+        if (!Utils.writeToFile(root.toString(), indexFile)) {
+            dirty = true;
+            console.print("Failed to save verified file index.");
+        }
+    }
+
+    /**
+     * Checks if a file matches the expected SHA-1 only hashing it when it changed since the last verification
+     * @param file The file to be checked
+     * @param sha1 The expected SHA-1
+     * @param size The expected size or a value lower than 1 if unknown
+     * @return A boolean that indicates if the file is valid
+     */
+    public final boolean verify(File file, String sha1, long size) {
+        if (sha1 == null || !file.isFile()) {
+            return false;
+        }
+        String key = file.getAbsolutePath();
+        long length = file.length();
+        if (size > 0 && length != size) {
+            invalidate(file);
+            return false;
+        }
+        long mtime = file.lastModified();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.size == length && entry.mtime == mtime && entry.sha1.equalsIgnoreCase(sha1)) {
+            return true;
+        }
+        if (Utils.verifyChecksum(file, sha1, "SHA-1")) {
+            entries.put(key, new Entry(length, mtime, sha1));
+            dirty = true;
+            return true;
+        }
+        invalidate(file);
+        return false;
+    }
+
+    /**
+     * Records a file as verified with the specified SHA-1
+     * @param file The verified file
+     * @param sha1 The SHA-1 of the file
+     */
+    public final void record(File file, String sha1) {
+        if (sha1 == null || !file.isFile()) {
+            return;
+        }
+        entries.put(file.getAbsolutePath(), new Entry(file.length(), file.lastModified(), sha1));
+        dirty = true;
+    }
+
+    /**
+     * Returns the SHA-1 a file was verified with if it has not changed since then
+     * @param file The target file
+     * @return The SHA-1 or null if the file is not indexed or has changed
+     */
+    public final String getHash(File file) {
+        Entry entry = entries.get(file.getAbsolutePath());
+        if (entry == null || !file.isFile() || entry.size != file.length() || entry.mtime != file.lastModified()) {
+            return null;
+        }
+        return entry.sha1;
+    }
+
+    /**
+     * Removes a file from the index
+     * @param file The target file
+     */
+    public final void invalidate(File file) {
+        if (entries.remove(file.getAbsolutePath()) != null) {
+            dirty = true;
+        }
+    }
+
+    private static final class Entry {
+        private final long size;
+        private final long mtime;
+        private final String sha1;
+
+        Entry(long size, long mtime, String sha1) {
+            this.size = size;
+            this.mtime = mtime;
+            this.sha1 = sha1;
+        }
+    }
+}
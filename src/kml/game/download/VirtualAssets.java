@@ -0,0 +1,167 @@
+package kml.game.download;
+
+import kml.Console;
+import kml.Kernel;
+import kml.game.version.asset.AssetIndex;
+import kml.game.version.asset.AssetIndexReader;
+import kml.utils.Utils;
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class VirtualAssets {
+    private static final File ASSETS_ROOT = new File(Kernel.APPLICATION_WORKING_DIR, "assets");
+    private static final String MARKER = ".complete";
+    private final Console console;
+
+    public VirtualAssets(Console c) {
+        console = c;
+    }
+
+    /**
+     * Returns the virtual asset folder of an index building it from the asset objects if needed. Files are
+     * linked to the objects and a marker holding the index hash lets later launches skip the whole walk.
+     * @param index The asset index
+     * @return The virtual asset folder
+     */
+    public final File build(AssetIndex index) {
+        final File root = getRoot(index.getID());
+        File indexJSON = new File(ASSETS_ROOT, "indexes" + File.separator + index.getID() + ".json");
+        String hash = index.getSHA1() != null ? index.getSHA1() : Utils.calculateChecksum(indexJSON, "SHA-1");
+        File marker = new File(root, MARKER);
+        if (hash != null && hash.equalsIgnoreCase(readMarker(marker))) {
+            console.print("Virtual asset folder is up to date.");
+            return root;
+        }
+        console.print("Building virtual asset folder.");
+        root.mkdirs();
+        marker.delete();
+        //Every name is needed even when several share the same object
+        final List<String> names = new ArrayList<>(), hashes = new ArrayList<>();
+        try {
+            new AssetIndexReader(indexJSON).read(new AssetIndexReader.Handler() {
+                @Override
+                public void asset(String name, String sha, long size) {
+                    if (sha == null || sha.length() < 2) {
+                        console.print("Skipping asset " + name + ". Invalid asset hash " + sha);
+                        return;
+                    }
+                    names.add(name);
+                    hashes.add(sha);
+                }
+            });
+        } catch (IOException | JSONException ex) {
+            console.print("Failed to create virtual asset folder.");
+            ex.printStackTrace(console.getWriter());
+            return root;
+        }
+        AtomicInteger failed = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new LinkTask(names, hashes, root, 0, names.size(), failed));
+        } finally {
+            pool.shutdown();
+        }
+        if (failed.get() > 0) {
+            console.print("Failed to link " + failed.get() + " assets into the virtual asset folder.");
+        } else if (hash != null && !Utils.writeToFile(hash, marker)) {
+            console.print("Failed to mark the virtual asset folder as complete.");
+        }
+        return root;
+    }
+
+    /**
+     * Checks if a virtual asset folder has been completely built
+     * @param root The virtual asset folder
+     * @return A boolean with the result
+     */
+    public static boolean isComplete(File root) {
+        return new File(root, MARKER).isFile();
+    }
+
+    /**
+     * Forces every virtual asset folder to be checked again on the next launch
+     */
+    public static void invalidateAll() {
+        File[] roots = new File(ASSETS_ROOT, "virtual").listFiles();
+        if (roots != null) {
+            for (File root : roots) {
+                new File(root, MARKER).delete();
+            }
+        }
+    }
+
+    private static String readMarker(File marker) {
+        if (!marker.isFile()) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(marker.toPath()), StandardCharsets.UTF_8).trim();
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private static File getRoot(String id) {
+        return new File(ASSETS_ROOT, "virtual" + File.separator + id);
+    }
+
+    /**
+     * Links a range of assets into the virtual folder splitting the work across the pool
+     */
+    private final class LinkTask extends RecursiveAction {
+        private static final int THRESHOLD = 64;
+        private final List<String> names, hashes;
+        private final File root;
+        private final int from, to;
+        private final AtomicInteger failed;
+
+        LinkTask(List<String> names, List<String> hashes, File root, int from, int to, AtomicInteger failed) {
+            this.names = names;
+            this.hashes = hashes;
+            this.root = root;
+            this.from = from;
+            this.to = to;
+            this.failed = failed;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    String sha = hashes.get(i);
+                    File object = new File(ASSETS_ROOT, "objects" + File.separator + sha.substring(0, 2) + File.separator + sha);
+                    File target = new File(root, names.get(i));
+                    try {
+                        if (target.isFile() && Files.isSameFile(object.toPath(), target.toPath())) {
+                            continue;
+                        }
+                        if (target.getParentFile() != null) {
+                            target.getParentFile().mkdirs();
+                        }
+                        Utils.linkFile(object, target, true);
+                    } catch (IOException ex) {
+                        console.print("Failed to link asset " + names.get(i));
+                        failed.incrementAndGet();
+                    }
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new LinkTask(names, hashes, root, from, middle, failed), new LinkTask(names, hashes, root, middle, to, failed));
+            }
+        }
+    }
+}
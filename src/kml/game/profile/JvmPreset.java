@@ -0,0 +1,9 @@
+package kml.game.profile;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+public enum JvmPreset {
+    CLASSIC, AUTO, LOW_MEMORY, PERFORMANCE
+}
@@ -23,6 +23,7 @@ public class Profile implements Comparable<Profile>{
     private String icon;
     private VersionMeta lastVersionId;
     private boolean latestRelease, latestSnapshot;
+    private JvmPreset jvmPreset = JvmPreset.CLASSIC;
 
     public Profile(ProfileType type) {
         this.id = UUID.randomUUID().toString().replaceAll("-", "");
@@ -152,6 +153,14 @@ public class Profile implements Comparable<Profile>{
         return javaArgs != null;
     }
 
+    public final JvmPreset getJvmPreset() {
+        return jvmPreset;
+    }
+
+    public final void setJvmPreset(JvmPreset preset) {
+        jvmPreset = preset == null ? JvmPreset.CLASSIC : preset;
+    }
+
     public final Timestamp getLastUsed() {
         return lastUsed;
     }
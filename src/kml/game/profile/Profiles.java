@@ -161,6 +161,13 @@ public class Profiles {
                         }
                     }
                     Profile p = new Profile(key, name, type, created, lastUsed, version, gameDir, javaDir, javaArgs, resolution, icon, latestRelease, latestSnapshot);
+                    if (o.has("jvmPreset")) {
+                        try {
+                            p.setJvmPreset(JvmPreset.valueOf(o.getString("jvmPreset")));
+                        } catch (IllegalArgumentException ex) {
+                            console.print("Invalid JVM preset for profile " + key);
+                        }
+                    }
                     if (first == null) {
                         first = p;
                     }
@@ -319,6 +326,9 @@ public class Profiles {
             if (p.hasJavaArgs()) {
                 prof.put("javaArgs", p.getJavaArgs());
             }
+            if (p.getJvmPreset() != JvmPreset.CLASSIC) {
+                prof.put("jvmPreset", p.getJvmPreset().name());
+            }
             if (p.hasResolution()) {
                 JSONObject res = new JSONObject();
                 res.put("width", p.getResolutionWidth());
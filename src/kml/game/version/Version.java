@@ -26,6 +26,7 @@ public final class Version {
     private final String jsonURL;
     private String mainClass, minecraftArguments, jar;
     private AssetIndex assetIndex;
+    private int javaVersion;
     private final File relativeJar;
     private final File relativeJSON;
 
@@ -109,6 +110,12 @@ public final class Version {
                 this.downloads.put("client", d);
             }
         }
+        if (version.has("javaVersion")) {
+            JSONObject java = version.getJSONObject("javaVersion");
+            if (java.has("majorVersion")) {
+                javaVersion = java.getInt("majorVersion");
+            }
+        }
         if (version.has("libraries")) {
             JSONArray libraries = version.getJSONArray("libraries");
             for (int i = 0; i < libraries.length(); i++) {
@@ -142,6 +149,9 @@ public final class Version {
                         assetIndex = ver.assetIndex;
                     }
                 }
+                if (javaVersion == 0) {
+                    javaVersion = ver.javaVersion;
+                }
                 if (ver.hasMainClass()) {
                     if (!hasMainClass()) {
                         mainClass = ver.mainClass;
@@ -157,6 +167,10 @@ public final class Version {
         if (assetIndex == null) {
             assetIndex = new AssetIndex(null);
         }
+        if (javaVersion == 0) {
+            //Versions released before the field existed run on Java 8
+            javaVersion = 8;
+        }
         String idToUse = id;
         if (jar != null) {
             idToUse = jar;
@@ -221,6 +235,10 @@ public final class Version {
         return downloads;
     }
 
+    public int getJavaVersion() {
+        return javaVersion;
+    }
+
     public boolean hasJar() {
         return jar != null;
     }
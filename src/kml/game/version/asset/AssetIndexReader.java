@@ -0,0 +1,153 @@
+package kml.game.version.asset;
+
+import org.json.JSONException;
+import org.json.JSONTokener;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class AssetIndexReader {
+    private final File file;
+    private boolean virtual, mapToResources;
+
+    public AssetIndexReader(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Receives the objects of an asset index as they are read
+     */
+    public interface Handler {
+        /**
+         * Called once for every object of the index
+         * @param name The name of the asset
+         * @param hash The SHA-1 of the object
+         * @param size The size of the object or -1 if unknown
+         * @throws IOException If the handler failed to process the object
+         */
+        void asset(String name, String hash, long size) throws IOException;
+    }
+
+    /**
+     * Reads the index sending every object to the handler without loading the whole document in memory
+     * @param handler The object handler
+     * @throws IOException If the file could not be read or the handler failed
+     * @throws JSONException If the file is not a valid asset index
+     */
+    public final void read(Handler handler) throws IOException {
+        virtual = false;
+        mapToResources = false;
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 65536)) {
+            JSONTokener t = new JSONTokener(reader);
+            if (t.nextClean() != '{') {
+                throw t.syntaxError("An asset index must begin with '{'");
+            }
+            if (t.nextClean() == '}') {
+                return;
+            }
+            t.back();
+            while (true) {
+                String key = nextKey(t);
+                switch (key) {
+                    case "objects":
+                        readObjects(t, handler);
+                        break;
+                    case "virtual":
+                        virtual = Boolean.TRUE.equals(t.nextValue());
+                        break;
+                    case "map_to_resources":
+                        mapToResources = Boolean.TRUE.equals(t.nextValue());
+                        break;
+                    default:
+                        t.nextValue();
+                }
+                if (!hasNextEntry(t)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if the last read index requires a virtual asset folder
+     * @return A boolean with the index flag
+     */
+    public final boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Checks if the last read index has to be mapped to the resources folder
+     * @return A boolean with the index flag
+     */
+    public final boolean isMapToResources() {
+        return mapToResources;
+    }
+
+    private static void readObjects(JSONTokener t, Handler handler) throws IOException {
+        if (t.nextClean() != '{') {
+            throw t.syntaxError("Asset objects must be a JSON object");
+        }
+        if (t.nextClean() == '}') {
+            return;
+        }
+        t.back();
+        while (true) {
+            String name = nextKey(t);
+            if (t.nextClean() != '{') {
+                throw t.syntaxError("Asset " + name + " must be a JSON object");
+            }
+            String hash = null;
+            long size = -1;
+            if (t.nextClean() != '}') {
+                t.back();
+                while (true) {
+                    String field = nextKey(t);
+                    Object value = t.nextValue();
+                    if ("hash".equals(field)) {
+                        hash = value.toString();
+                    } else if ("size".equals(field) && value instanceof Number) {
+                        size = ((Number) value).longValue();
+                    }
+                    if (!hasNextEntry(t)) {
+                        break;
+                    }
+                }
+            }
+            if (hash == null) {
+                throw t.syntaxError("Asset " + name + " has no hash");
+            }
+            handler.asset(name, hash, size);
+            if (!hasNextEntry(t)) {
+                return;
+            }
+        }
+    }
+
+    private static String nextKey(JSONTokener t) {
+        if (t.nextClean() != '"') {
+            throw t.syntaxError("Expected a quoted key");
+        }
+        String key = t.nextString('"');
+        if (t.nextClean() != ':') {
+            throw t.syntaxError("Expected a ':' after a key");
+        }
+        return key;
+    }
+
+    private static boolean hasNextEntry(JSONTokener t) {
+        switch (t.nextClean()) {
+            case ',':
+                return true;
+            case '}':
+                return false;
+            default:
+                throw t.syntaxError("Expected a ',' or '}'");
+        }
+    }
+}
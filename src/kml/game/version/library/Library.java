@@ -2,6 +2,7 @@ package kml.game.version.library;
 
 import kml.*;
 import kml.game.download.Downloadable;
+import kml.game.download.MirrorSelector;
 import kml.utils.Utils;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -136,7 +137,7 @@ public final class Library {
         } else {
             if (isCompatible()) {
                 if (isNative() && natives.containsKey(Utils.getPlatform())) {
-                    String url = "https://libraries.minecraft.net/" + Utils.getArtifactPath(name, "jar").replace(".jar", '-' + getNativeTag() + ".jar");
+                    String url = MirrorSelector.LIBRARIES_URL + Utils.getArtifactPath(name, "jar").replace(".jar", '-' + getNativeTag() + ".jar");
                     Downloadable d = new Downloadable(url, 0, relativeNativePath, null, null);
                     downloads.put("classifier", d);
                 } else if (hasURL()) {
@@ -144,7 +145,7 @@ public final class Library {
                     Downloadable d = new Downloadable(url, 0, relativePath, null, null);
                     downloads.put("artifact", d);
                 } else {
-                    String url = "https://libraries.minecraft.net/" + Utils.getArtifactPath(name, "jar");
+                    String url = MirrorSelector.LIBRARIES_URL + Utils.getArtifactPath(name, "jar");
                     Downloadable d = new Downloadable(url, 0, relativePath, null, null);
                     downloads.put("artifact", d);
                 }
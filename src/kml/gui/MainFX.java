@@ -25,6 +25,7 @@ import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.Stage;
 import javafx.stage.Window;
+import javafx.util.StringConverter;
 import kml.*;
 import kml.auth.Authentication;
 import kml.auth.user.User;
@@ -33,7 +34,10 @@ import kml.exceptions.AuthenticationException;
 import kml.exceptions.DownloaderException;
 import kml.exceptions.GameLauncherException;
 import kml.game.GameLauncher;
+import kml.game.download.DownloadListener;
+import kml.game.download.DownloadProgress;
 import kml.game.download.Downloader;
+import kml.game.profile.JvmPreset;
 import kml.game.profile.Profile;
 import kml.game.profile.ProfileType;
 import kml.game.profile.Profiles;
@@ -63,7 +67,7 @@ public class MainFX {
 
     @FXML private Label progressText, newsLabel, skinsLabel, settingsLabel, launchOptionsLabel,
             keepLauncherOpen, outputLog, enableSnapshots, historicalVersions,
-            advancedSettings, resolutionLabel, gameDirLabel, javaExecLabel, javaArgsLabel, accountButton,
+            advancedSettings, resolutionLabel, gameDirLabel, javaExecLabel, javaArgsLabel, jvmPresetLabel, accountButton,
             switchAccountButton, languageButton, newsTitle, newsText, slideBack, slideForward, rotateRight,
             rotateLeft, includeCape, versionLabel, usernameLabel, passwordLabel, existingLabel, launcherSettings,
             nameLabel, profileVersionLabel, skinLabel, capeLabel, modelLabel, iconLabel, helpButton, gameVersion,
@@ -84,7 +88,8 @@ public class MainFX {
     @FXML private PasswordField password;
     @FXML private ComboBox<User> existingUsers;
     @FXML private ComboBox<VersionMeta> versionList;
-    @FXML private StackPane versionBlock, javaArgsBlock, javaExecBlock, iconBlock;
+    @FXML private ComboBox<JvmPreset> jvmPreset;
+    @FXML private StackPane versionBlock, javaArgsBlock, javaExecBlock, jvmPresetBlock, iconBlock;
     @FXML private ImageView profileIcon, slideshow, skinPreview;
     @FXML private RadioButton skinClassic, skinSlim, authKrothium, authMojang;
     @FXML private Hyperlink forgotPasswordLink;
@@ -147,6 +152,20 @@ public class MainFX {
         resW.setEditable(true);
         resH.setEditable(true);
 
+        //Prepare JVM presets
+        jvmPreset.setItems(FXCollections.observableArrayList(JvmPreset.values()));
+        jvmPreset.setConverter(new StringConverter<JvmPreset>() {
+            @Override
+            public String toString(JvmPreset preset) {
+                return preset == null ? "" : Language.get(106 + preset.ordinal());
+            }
+
+            @Override
+            public JvmPreset fromString(String string) {
+                return null;
+            }
+        });
+
         //If offline mode make play button bigger for language support and hide skins tab
         if (Kernel.USE_LOCAL) {
             skinsLabel.setVisible(false);
@@ -301,6 +320,7 @@ public class MainFX {
         gameDirLabel.setText(Language.get(66));
         javaExecLabel.setText(Language.get(67));
         javaArgsLabel.setText(Language.get(68));
+        jvmPresetLabel.setText(Language.get(105));
         existingLabel.setText(Language.get(85));
         switchAccountButton.setText(Language.get(86));
         selectSkin.setText(Language.get(87));
@@ -971,31 +991,36 @@ public class MainFX {
         progressText.setText("");
         final Downloader d = kernel.getDownloader();
         final GameLauncher gl = kernel.getGameLauncher();
-
-        //Keep track of the progress
-        final TimerTask progressTask = new TimerTask() {
-            @Override
-            public void run() {
-                Platform.runLater(new Runnable() {
-                    @Override
-                    public void run() {
-                        MainFX.this.progressBar.setProgress(d.getProgress());
-                        MainFX.this.progressText.setText(Language.get(13) + ' ' + d.getCurrentFile() + "...");
-                    }
-                });
-            }
-        };
+        final DownloadListener progressListener = createProgressListener();
 
         Thread runThread = new Thread(new Runnable() {
             @Override
             public void run() {
                 //Begin download and game launch task
                 try {
-                    Timer timer = new Timer();
-                    timer.schedule(progressTask, 0, 25);
-                    d.download();
-                    timer.cancel();
-                    timer.purge();
+                    d.addListener(progressListener);
+                    try {
+                        //Join the background session of a previous launch before claiming a new one
+                        if (d.isDownloading()) {
+                            console.print("Waiting for the running background downloads before launching.");
+                            try {
+                                d.awaitBackground();
+                            } catch (InterruptedException e) {
+                                console.print("Interrupted while waiting for background downloads.");
+                                Platform.runLater(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        progressPane.setVisible(false);
+                                        playPane.setVisible(true);
+                                    }
+                                });
+                                return;
+                            }
+                        }
+                        d.download();
+                    } finally {
+                        d.removeListener(progressListener);
+                    }
                     Platform.runLater(new Runnable() {
                         @Override
                         public void run() {
@@ -1008,14 +1033,32 @@ public class MainFX {
                     Platform.runLater(new Runnable() {
                         @Override
                         public void run() {
-                            progressPane.setVisible(false);
-                            playPane.setVisible(true);
                             playButton.setText(Language.get(14));
                             playButton.setDisable(true);
                             profilePopupButton.setDisable(true);
                         }
                     });
 
+                    //Keep showing the progress of the assets that are still downloading while the game runs
+                    if (d.isDownloading()) {
+                        d.addListener(progressListener);
+                        try {
+                            d.awaitBackground();
+                        } catch (InterruptedException e) {
+                            console.print("Interrupted while waiting for background downloads.");
+                        } finally {
+                            d.removeListener(progressListener);
+                        }
+                    }
+
+                    Platform.runLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            progressPane.setVisible(false);
+                            playPane.setVisible(true);
+                        }
+                    });
+
                     if (!settings.getKeepLauncherOpen()) {
                         Platform.runLater(new Runnable() {
                             @Override
@@ -1048,6 +1091,29 @@ public class MainFX {
         runThread.start();
     }
 
+    /**
+     * Creates a listener that mirrors the downloader progress on the progress bar
+     * @return The progress listener
+     */
+    private DownloadListener createProgressListener() {
+        return new DownloadListener() {
+            @Override
+            public void progressChanged(final DownloadProgress progress) {
+                Platform.runLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        String text = Language.get(13) + ' ' + progress.getCurrentFile() + "...";
+                        if (progress.getBytesPerSecond() > 0) {
+                            text += " (" + Utils.formatBytes((long) progress.getBytesPerSecond()) + "/s)";
+                        }
+                        MainFX.this.progressBar.setProgress(progress.getProgress());
+                        MainFX.this.progressText.setText(text);
+                    }
+                });
+            }
+        };
+    }
+
     /**
      * Callback from Game Launcher
      * @param error True if an error happened during launch
@@ -1309,6 +1375,9 @@ public class MainFX {
                 javaExecBlock.setManaged(true);
                 javaArgsBlock.setVisible(true);
                 javaArgsBlock.setManaged(true);
+                jvmPresetBlock.setVisible(true);
+                jvmPresetBlock.setManaged(true);
+                jvmPreset.getSelectionModel().select(JvmPreset.CLASSIC);
                 toggleEditorOption(javaExecLabel, false);
                 javaExec.setText(Utils.getJavaDir());
                 toggleEditorOption(javaArgsLabel, false);
@@ -1326,6 +1395,8 @@ public class MainFX {
                 javaExecBlock.setManaged(false);
                 javaArgsBlock.setVisible(false);
                 javaArgsBlock.setManaged(false);
+                jvmPresetBlock.setVisible(false);
+                jvmPresetBlock.setManaged(false);
             }
             toggleEditorOption(resolutionLabel, false);
             resW.setText(String.valueOf(854));
@@ -1404,6 +1475,9 @@ public class MainFX {
                     javaExecBlock.setManaged(true);
                     javaArgsBlock.setVisible(true);
                     javaArgsBlock.setManaged(true);
+                    jvmPresetBlock.setVisible(true);
+                    jvmPresetBlock.setManaged(true);
+                    jvmPreset.getSelectionModel().select(p.getJvmPreset());
                     if (p.hasJavaDir()){
                         toggleEditorOption(javaExecLabel, true);
                         javaExec.setText(p.getJavaDir().getAbsolutePath());
@@ -1430,6 +1504,8 @@ public class MainFX {
                     javaExecBlock.setManaged(false);
                     javaArgsBlock.setVisible(false);
                     javaArgsBlock.setManaged(false);
+                    jvmPresetBlock.setVisible(false);
+                    jvmPresetBlock.setManaged(false);
                 }
             }
         }
@@ -1530,6 +1606,7 @@ public class MainFX {
             } else {
                 target.setJavaArgs(null);
             }
+            target.setJvmPreset(jvmPreset.getSelectionModel().getSelectedItem());
         }
         kernel.saveProfiles();
         if (kernel.getProfiles().getSelectedProfile() == target) {
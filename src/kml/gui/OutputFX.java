@@ -3,17 +3,24 @@ package kml.gui;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.fxml.FXML;
+import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
 import javafx.scene.control.SelectionMode;
 import javafx.scene.input.Clipboard;
 import javafx.scene.input.ClipboardContent;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
+import kml.game.ProcessStats;
+import kml.utils.Utils;
+
+import java.util.Locale;
 
 
 public class OutputFX {
     @FXML
     private ListView<String> outputList;
+    @FXML
+    private Label statsLabel;
 
     public final void initialize() {
         outputList.setItems(FXCollections.<String>observableArrayList());
@@ -30,6 +37,16 @@ public class OutputFX {
         });
     }
 
+    public final void updateStats(final ProcessStats stats) {
+        Platform.runLater(new Runnable() {
+            @Override
+            public void run() {
+                statsLabel.setText(String.format(Locale.ROOT, "CPU %.0f%% | RAM %s | Threads %d",
+                        stats.getCPU(), Utils.formatBytes(stats.getRSS()), stats.getThreads()));
+            }
+        });
+    }
+
     @FXML
     public final void copyClipboard(KeyEvent e) {
         //Copy to clipboard selected rows
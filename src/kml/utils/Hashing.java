@@ -0,0 +1,117 @@
+package kml.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @author DarkLBP
+ * website https://krothium.com
+ */
+
+public final class Hashing {
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final ConcurrentMap<String, ThreadLocal<MessageDigest>> DIGESTS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    private Hashing() {
+    }
+
+    /**
+     * Returns the digest of the current thread for an algorithm. Digests are reused because creating them
+     * requires a provider lookup.
+     * @param algorithm The hash method (MD5, SHA-1...)
+     * @return The reset message digest
+     */
+    private static MessageDigest getDigest(final String algorithm) {
+        ThreadLocal<MessageDigest> local = DIGESTS.get(algorithm);
+        if (local == null) {
+            //Fail early on unknown algorithms instead of on every thread
+            Utils.getDigest(algorithm);
+            local = new ThreadLocal<MessageDigest>() {
+                @Override
+                protected MessageDigest initialValue() {
+                    return Utils.getDigest(algorithm);
+                }
+            };
+            ThreadLocal<MessageDigest> previous = DIGESTS.putIfAbsent(algorithm, local);
+            if (previous != null) {
+                local = previous;
+            }
+        }
+        MessageDigest digest = local.get();
+        digest.reset();
+        return digest;
+    }
+
+    /**
+     * Hashes a file reading it through a direct buffer owned by the current thread
+     * @param file The input file
+     * @param algorithm The hash method (MD5, SHA-1...)
+     * @return The raw hash
+     * @throws IOException If the file could not be read
+     */
+    public static byte[] hash(File file, String algorithm) throws IOException {
+        MessageDigest digest = getDigest(algorithm);
+        ByteBuffer buffer = BUFFERS.get();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Checks if a file matches a hash comparing the raw digest bytes
+     * @param file The input file
+     * @param hash The expected hexadecimal hash
+     * @param algorithm The hash method (MD5, SHA-1...)
+     * @return A boolean that indicates if the hash matches
+     */
+    public static boolean matches(File file, String hash, String algorithm) {
+        byte[] expected = fromHex(hash);
+        if (expected == null || !file.isFile()) {
+            return false;
+        }
+        try {
+            return MessageDigest.isEqual(expected, hash(file, algorithm));
+        } catch (IOException | IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Converts a hexadecimal hash to its raw representation
+     * @param hex The hexadecimal hash
+     * @return The raw hash or null if the text is not a valid hash
+     */
+    public static byte[] fromHex(String hex) {
+        if (hex == null || hex.isEmpty() || hex.length() % 2 != 0) {
+            return null;
+        }
+        byte[] raw = new byte[hex.length() / 2];
+        for (int i = 0; i < raw.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high == -1 || low == -1) {
+                return null;
+            }
+            raw[i] = (byte) ((high << 4) | low);
+        }
+        return raw;
+    }
+}
@@ -11,6 +11,7 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Locale;
@@ -25,6 +26,8 @@ import java.util.zip.ZipInputStream;
  */
 
 public final class Utils {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /**
      * Gets the current operating system
      * @return An OS enum with the detected OS
@@ -203,33 +206,96 @@ public final class Utils {
         if (hash == null || method == null || !file.isFile()) {
             return false;
         }
-        String fileHash = calculateChecksum(file, method);
-        return hash.equals(fileHash);
+        return Hashing.matches(file, hash, method);
     }
 
     /**
      * Calculates a checksum from a File
      * @param file The input File
      * @param algorithm The hash method (md5, sha1...)
-     * @return The calculated hash
+     * @return The calculated hash or null if the file could not be read
      */
-    private static String calculateChecksum(File file, String algorithm) {
-        try (FileInputStream fis = new FileInputStream(file)){
-            MessageDigest sha1 = MessageDigest.getInstance(algorithm);
-            byte[] data = new byte[8192];
-            int read;
-            while ((read = fis.read(data)) != -1) {
-                sha1.update(data, 0, read);
+    public static String calculateChecksum(File file, String algorithm) {
+        try {
+            return toHex(Hashing.hash(file, algorithm));
+        } catch (IOException | IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a message digest for an algorithm that every Java platform must support
+     * @param algorithm The hash method (MD5, SHA-1...)
+     * @return The message digest
+     */
+    public static MessageDigest getDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalArgumentException("Unsupported hash algorithm " + algorithm, ex);
+        }
+    }
+
+    /**
+     * Converts a hash to its hexadecimal representation
+     * @param hashBytes The raw hash
+     * @return The hexadecimal hash
+     */
+    public static String toHex(byte[] hashBytes) {
+        char[] hex = new char[hashBytes.length * 2];
+        for (int i = 0; i < hashBytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(hashBytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[hashBytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Makes the target share the contents of the source. A hard link is used when possible, otherwise a
+     * symbolic link if allowed or a copy. The target is replaced atomically so readers never see a partial file.
+     * @param source The source file
+     * @param target The target file
+     * @param symbolic If a symbolic link may be used when hard links are not available
+     * @throws IOException If the file could not be linked nor copied
+     */
+    public static void linkFile(File source, File target, boolean symbolic) throws IOException {
+        Path temp = target.toPath().resolveSibling(target.getName() + ".link");
+        Files.deleteIfExists(temp);
+        try {
+            Files.createLink(temp, source.toPath());
+        } catch (IOException | UnsupportedOperationException ex) {
+            //Different volumes or a file system without hard links
+            boolean linked = false;
+            if (symbolic) {
+                try {
+                    Files.createSymbolicLink(temp, source.getAbsoluteFile().toPath());
+                    linked = true;
+                } catch (IOException | UnsupportedOperationException ex2) {
+                    //Symbolic links usually require extra privileges on Windows
+                }
             }
-            byte[] hashBytes = sha1.digest();
-            StringBuilder sb = new StringBuilder();
-            for (byte hashByte : hashBytes) {
-                sb.append(Integer.toString((hashByte & 0xff) + 0x100, 16).substring(1));
+            if (!linked) {
+                Files.copy(source.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
             }
-            return sb.toString();
-        } catch (IOException | NoSuchAlgorithmException ex) {
-            return null;
         }
+        try {
+            Files.move(temp, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Formats an amount of bytes using the largest fitting unit
+     * @param bytes The amount of bytes
+     * @return The formatted amount
+     */
+    public static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format(Locale.ROOT, "%.1f %sB", bytes / (double) (1L << (unit * 10)), "KMGTPE".charAt(unit - 1));
     }
 
     /**
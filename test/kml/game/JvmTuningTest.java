@@ -0,0 +1,82 @@
+package kml.game;
+
+import kml.game.profile.JvmPreset;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class JvmTuningTest {
+    private static final File ARCHIVE = new File("game.jsa");
+
+    @Test
+    public void classicKeepsTheLegacyArguments() {
+        assertEquals(Arrays.asList("-Xmx2G", "-Xmn128M"), JvmTuning.getArguments(JvmPreset.CLASSIC, runtime("17.0.9", true), 17));
+        assertEquals(Arrays.asList("-Xmx1G", "-Xss1M", "-Xmn128M"), JvmTuning.getArguments(JvmPreset.CLASSIC, runtime("1.8.0_202", false), 8));
+    }
+
+    @Test
+    public void sizesTheHeapInSteps() {
+        for (JvmPreset preset : new JvmPreset[]{JvmPreset.AUTO, JvmPreset.LOW_MEMORY, JvmPreset.PERFORMANCE}) {
+            long heap = getHeap(JvmTuning.getArguments(preset, runtime("17.0.9", true), 17));
+            assertTrue(heap >= 256 && heap <= 8192);
+            assertEquals(0, heap % 256);
+        }
+    }
+
+    @Test
+    public void capsTheHeapOf32BitRuntimes() {
+        List<String> args = JvmTuning.getArguments(JvmPreset.PERFORMANCE, runtime("1.8.0_202", false), 8);
+        assertTrue(getHeap(args) <= 1024);
+        assertTrue(args.contains("-Xss1M"));
+    }
+
+    @Test
+    public void performancePinsTheInitialHeap() {
+        List<String> args = JvmTuning.getArguments(JvmPreset.PERFORMANCE, runtime("17.0.9", true), 17);
+        assertTrue(args.contains("-Xms" + getHeap(args) + 'M'));
+        for (String arg : JvmTuning.getArguments(JvmPreset.AUTO, runtime("17.0.9", true), 17)) {
+            assertFalse(arg.startsWith("-Xms"));
+        }
+    }
+
+    @Test
+    public void unknownRuntimesUseG1() {
+        List<String> args = JvmTuning.getArguments(JvmPreset.PERFORMANCE, null, 17);
+        assertTrue(args.contains("-XX:+UseG1GC"));
+        assertFalse(args.contains("-XX:+UseZGC"));
+        assertFalse(args.contains("-XX:+UseShenandoahGC"));
+    }
+
+    @Test
+    public void sharingNeedsAutoArchives() {
+        assertEquals(Arrays.asList("-XX:+AutoCreateSharedArchive", "-XX:SharedArchiveFile=" + ARCHIVE.getAbsolutePath()),
+                JvmTuning.getSharingArguments(runtime("21.0.1", true), ARCHIVE));
+        assertTrue(JvmTuning.getSharingArguments(runtime("17.0.9", true), ARCHIVE).isEmpty());
+        assertTrue(JvmTuning.getSharingArguments(runtime("1.8.0_202", true), ARCHIVE).isEmpty());
+        JavaRuntime noArchive = new JavaRuntime(new File("java"), "21.0.1", "Test", "amd64", true, false, false, false);
+        assertTrue(JvmTuning.getSharingArguments(noArchive, ARCHIVE).isEmpty());
+    }
+
+    private static JavaRuntime runtime(String version, boolean is64Bit) {
+        return new JavaRuntime(new File("java"), version, "Test", is64Bit ? "amd64" : "x86", is64Bit, false, false, true);
+    }
+
+    private static long getHeap(List<String> args) {
+        for (String arg : args) {
+            if (arg.startsWith("-Xmx")) {
+                return Long.parseLong(arg.substring(4, arg.length() - 1));
+            }
+        }
+        fail("No maximum heap in " + args);
+        return -1;
+    }
+}
@@ -0,0 +1,68 @@
+package kml.game;
+
+import kml.auth.user.UserType;
+import kml.game.profile.JvmPreset;
+import kml.game.profile.Profile;
+import kml.game.profile.ProfileType;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class LaunchPlanTest {
+    private static final String VERSION = "1.12.2";
+    private static final String RUNTIMES = "runtimes-a";
+
+    @Test
+    public void keyIsStable() {
+        Profile p = new Profile(ProfileType.CUSTOM);
+        String key = LaunchPlan.getKey(p, VERSION, UserType.MOJANG, RUNTIMES);
+        assertEquals(40, key.length());
+        assertEquals(key, LaunchPlan.getKey(p, VERSION, UserType.MOJANG, RUNTIMES));
+    }
+
+    @Test
+    public void keyDoesNotDependOnTheProfileIdentity() {
+        //Plans are stored per profile, the key only describes the command
+        assertEquals(LaunchPlan.getKey(new Profile(ProfileType.CUSTOM), VERSION, UserType.MOJANG, RUNTIMES),
+                LaunchPlan.getKey(new Profile(ProfileType.RELEASE), VERSION, UserType.MOJANG, RUNTIMES));
+    }
+
+    @Test
+    public void keyChangesWithTheLaunchInputs() {
+        Profile p = new Profile(ProfileType.CUSTOM);
+        String key = LaunchPlan.getKey(p, VERSION, UserType.MOJANG, RUNTIMES);
+        assertNotEquals(key, LaunchPlan.getKey(p, "1.13", UserType.MOJANG, RUNTIMES));
+        assertNotEquals(key, LaunchPlan.getKey(p, VERSION, UserType.KROTHIUM, RUNTIMES));
+        assertNotEquals(key, LaunchPlan.getKey(p, VERSION, UserType.MOJANG, "runtimes-b"));
+        p.setJavaArgs("-Xmx4G");
+        assertNotEquals(key, LaunchPlan.getKey(p, VERSION, UserType.MOJANG, RUNTIMES));
+        p.setJavaArgs(null);
+        p.setJvmPreset(JvmPreset.PERFORMANCE);
+        assertNotEquals(key, LaunchPlan.getKey(p, VERSION, UserType.MOJANG, RUNTIMES));
+        p.setJvmPreset(JvmPreset.CLASSIC);
+        p.setResolution(1280, 720);
+        assertNotEquals(key, LaunchPlan.getKey(p, VERSION, UserType.MOJANG, RUNTIMES));
+        p.setResolution(0, 0);
+        p.setGameDir(new File("instances", "modded"));
+        assertNotEquals(key, LaunchPlan.getKey(p, VERSION, UserType.MOJANG, RUNTIMES));
+        p.setGameDir(null);
+        assertEquals(key, LaunchPlan.getKey(p, VERSION, UserType.MOJANG, RUNTIMES));
+    }
+
+    @Test
+    public void profileRuntimeReplacesTheFingerprint() {
+        Profile p = new Profile(ProfileType.CUSTOM);
+        p.setJavaDir(new File("jdk", "java"));
+        String key = LaunchPlan.getKey(p, VERSION, UserType.MOJANG, RUNTIMES);
+        assertEquals(key, LaunchPlan.getKey(p, VERSION, UserType.MOJANG, "runtimes-b"));
+        p.setJavaDir(new File("jre", "java"));
+        assertNotEquals(key, LaunchPlan.getKey(p, VERSION, UserType.MOJANG, RUNTIMES));
+    }
+}
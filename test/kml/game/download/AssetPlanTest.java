@@ -0,0 +1,87 @@
+package kml.game.download;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class AssetPlanTest {
+    private static final String HASH_A = "bdf48ef6b5d0d23bbb02e17d04865216179f510a";
+    private static final String HASH_B = "00b4c9d5ed2c7a0e2a9f8a3c6a7e6a5d4c3b2a19";
+
+    @Test
+    public void addsUniqueObjects() {
+        AssetPlan plan = new AssetPlan(2);
+        assertTrue(plan.add(HASH_A, 100, "minecraft/sounds/a.ogg"));
+        assertTrue(plan.add(HASH_B, 50, "minecraft/sounds/b.ogg"));
+        assertEquals(2, plan.size());
+        assertEquals(150, plan.getTotalSize());
+        assertEquals(HASH_A, plan.getHash(0));
+        assertEquals(HASH_B, plan.getHash(1));
+        assertEquals(100, plan.getSize(0));
+        assertEquals("minecraft/sounds/b.ogg", plan.getName(1));
+    }
+
+    @Test
+    public void skipsDuplicateHashes() {
+        AssetPlan plan = new AssetPlan(2);
+        assertTrue(plan.add(HASH_A, 100, "first"));
+        assertFalse(plan.add(HASH_A, 100, "second"));
+        assertFalse(plan.add(HASH_A.toUpperCase(), 100, "third"));
+        assertEquals(1, plan.size());
+        assertEquals(100, plan.getTotalSize());
+        assertEquals("first", plan.getName(0));
+    }
+
+    @Test
+    public void keepsObjectsWhenGrowing() {
+        AssetPlan plan = new AssetPlan(1);
+        int total = 1000;
+        for (int i = 0; i < total; i++) {
+            assertTrue(plan.add(hashOf(i), i, "asset" + i));
+        }
+        for (int i = 0; i < total; i++) {
+            assertFalse(plan.add(hashOf(i), i, "again" + i));
+        }
+        assertEquals(total, plan.size());
+        assertEquals((long) total * (total - 1) / 2, plan.getTotalSize());
+        for (int i = 0; i < total; i++) {
+            assertEquals(hashOf(i), plan.getHash(i));
+            assertEquals("asset" + i, plan.getName(i));
+        }
+    }
+
+    @Test
+    public void buildsObjectLocations() {
+        AssetPlan plan = new AssetPlan(1);
+        plan.add(HASH_A, 100, "minecraft/lang/en_us.json");
+        File path = new File("assets" + File.separator + "objects" + File.separator + "bd" + File.separator + HASH_A);
+        assertEquals(path, plan.getRelativePath(0));
+        assertEquals(AssetPlan.RESOURCES_URL + "bd/" + HASH_A, plan.getURL(0));
+        Downloadable d = plan.toDownloadable(0);
+        assertEquals(path, d.getRelativePath());
+        assertEquals(HASH_A, d.getHash());
+        assertEquals(100, d.getSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidHashes() {
+        new AssetPlan(1).add("not a hash", 1, "broken");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortHashes() {
+        new AssetPlan(1).add("bdf48ef6", 1, "broken");
+    }
+
+    private static String hashOf(int i) {
+        //Equal leading bytes force collisions in the hash table
+        return String.format("%08x", i % 7) + String.format("%032x", i);
+    }
+}
@@ -0,0 +1,68 @@
+package kml.game.download;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class CircuitBreakerTest {
+    private static final int FAILURE_THRESHOLD = 5;
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 1; i < FAILURE_THRESHOLD; i++) {
+            assertFalse(breaker.recordFailure());
+            assertTrue(breaker.allowRequest());
+        }
+        assertTrue(breaker.recordFailure());
+        assertFalse(breaker.allowRequest());
+        long paused = breaker.getPausedTime();
+        assertTrue(paused > 0 && paused <= breaker.getOpenTime());
+    }
+
+    @Test
+    public void successResetsTheFailures() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 1; i < FAILURE_THRESHOLD; i++) {
+            breaker.recordFailure();
+        }
+        breaker.recordSuccess();
+        assertFalse(breaker.recordFailure());
+        assertTrue(breaker.allowRequest());
+        assertEquals(0, breaker.getPausedTime());
+    }
+
+    @Test
+    public void staleFailuresDoNotExtendTheCircuit() {
+        CircuitBreaker breaker = open();
+        long openTime = breaker.getOpenTime();
+        //Failures of requests sent before the circuit opened do not extend it
+        assertFalse(breaker.recordFailure());
+        assertEquals(openTime, breaker.getOpenTime());
+        assertTrue(breaker.getPausedTime() > 0);
+        breaker.recordSuccess();
+        assertTrue(breaker.allowRequest());
+        assertEquals(0, breaker.getPausedTime());
+    }
+
+    @Test
+    public void closedBreakerIsNotPaused() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+        assertEquals(0, breaker.getPausedTime());
+    }
+
+    private static CircuitBreaker open() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            breaker.recordFailure();
+        }
+        return breaker;
+    }
+}
@@ -0,0 +1,78 @@
+package kml.game.download;
+
+import kml.exceptions.CircuitOpenException;
+import kml.exceptions.HttpStatusException;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author DarkLBP
+ *         website https://krothium.com
+ */
+
+public class RetryPolicyTest {
+
+    @Test
+    public void classifiesStatusCodes() {
+        assertEquals(FailureType.THROTTLED, RetryPolicy.classify(new HttpStatusException("Too many requests", 429)));
+        assertEquals(FailureType.THROTTLED, RetryPolicy.classify(new HttpStatusException("Request timeout", 408)));
+        assertEquals(FailureType.CLIENT_ERROR, RetryPolicy.classify(new HttpStatusException("Forbidden", 403)));
+        assertEquals(FailureType.SERVER_ERROR, RetryPolicy.classify(new HttpStatusException("Bad gateway", 502)));
+    }
+
+    @Test
+    public void classifiesStatusMessages() {
+        IOException ex = new IOException("Server returned HTTP response code: 503 for URL: http://example.com/");
+        assertEquals(FailureType.SERVER_ERROR, RetryPolicy.classify(ex));
+        ex = new IOException("Server returned HTTP response code: 429 for URL: http://example.com/");
+        assertEquals(FailureType.THROTTLED, RetryPolicy.classify(ex));
+    }
+
+    @Test
+    public void classifiesConnectionErrors() {
+        assertEquals(FailureType.CLIENT_ERROR, RetryPolicy.classify(new FileNotFoundException("http://example.com/")));
+        assertEquals(FailureType.TIMEOUT, RetryPolicy.classify(new SocketTimeoutException("Read timed out")));
+        assertEquals(FailureType.CONNECTION_RESET, RetryPolicy.classify(new SocketException("Connection reset")));
+        assertEquals(FailureType.CONNECTION_RESET, RetryPolicy.classify(new IOException()));
+        assertEquals(FailureType.CIRCUIT_OPEN, RetryPolicy.classify(new CircuitOpenException("example.com")));
+    }
+
+    @Test
+    public void onlyBlamesHostsForHostFailures() {
+        assertTrue(RetryPolicy.isHostFailure(FailureType.THROTTLED));
+        assertTrue(RetryPolicy.isHostFailure(FailureType.SERVER_ERROR));
+        assertTrue(RetryPolicy.isHostFailure(FailureType.TIMEOUT));
+        assertTrue(RetryPolicy.isHostFailure(FailureType.CONNECTION_RESET));
+        assertFalse(RetryPolicy.isHostFailure(FailureType.CLIENT_ERROR));
+        assertFalse(RetryPolicy.isHostFailure(FailureType.CHECKSUM_MISMATCH));
+        assertFalse(RetryPolicy.isHostFailure(FailureType.CIRCUIT_OPEN));
+        assertFalse(RetryPolicy.isHostFailure(FailureType.PARTIAL_REJECTED));
+    }
+
+    @Test
+    public void retriesUntilTheAttemptsRunOut() {
+        RetryPolicy policy = new RetryPolicy(3, 100, 1000);
+        assertTrue(policy.shouldRetry(FailureType.SERVER_ERROR, 1));
+        assertTrue(policy.shouldRetry(FailureType.PARTIAL_REJECTED, 2));
+        assertFalse(policy.shouldRetry(FailureType.SERVER_ERROR, 3));
+        assertFalse(policy.shouldRetry(FailureType.CLIENT_ERROR, 1));
+        assertFalse(policy.shouldRetry(FailureType.CIRCUIT_OPEN, 1));
+    }
+
+    @Test
+    public void capsTheDelay() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.getDelay(FailureType.SERVER_ERROR, 1) <= 100);
+            assertTrue(policy.getDelay(FailureType.THROTTLED, 1) <= 200);
+            assertTrue(policy.getDelay(FailureType.TIMEOUT, 40) <= 1000);
+            assertEquals(0, policy.getDelay(FailureType.CHECKSUM_MISMATCH, 5));
+        }
+    }
+}